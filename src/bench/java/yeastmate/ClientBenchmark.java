@@ -0,0 +1,77 @@
+package yeastmate;
+
+import java.io.IOException;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ij.ImagePlus;
+
+/**
+ * client-side work per frame: normalization, TIFF encoding of request, mask decoding of response
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ClientBenchmark {
+
+	@Param({ "512:100", "1024:500", "2048:2000", "4096:5000" })
+	public String sizeAndCells;
+
+	private ImagePlus image;
+	private ImagePlus normalized;
+	private JSONObject response;
+
+	@Setup
+	public void setup() throws IOException, JSONException {
+		final int[] sc = SyntheticData.parseSizeAndCells( sizeAndCells );
+		final ImagePlus mask = SyntheticData.labelMask( sc[0], sc[1], 42, 0 );
+		image = SyntheticData.image( mask, 42 );
+		normalized = YeastMate.getNormalizedImagePlus( image, 0.015, 0.985, 1 );
+
+		// response as sent by server: base64-encoded 16-bit TIFF
+		response = new JSONObject();
+		response.put( "mask", Base64.getEncoder().encodeToString( YeastMate.encodeTiff( mask ) ) );
+	}
+
+	@Benchmark
+	public ImagePlus getNormalizedImagePlus() {
+		// give buffer back like the plugin does once a frame is sent
+		final ImagePlus normalizedIP = YeastMate.getNormalizedImagePlus( image, 0.015, 0.985, 1 );
+		YeastMate.releaseNormalizedImagePlus( normalizedIP );
+		return normalizedIP;
+	}
+
+	@Benchmark
+	public ImagePlus getNormalizedImagePlusFixedPoint() {
+		final ImagePlus normalizedIP = YeastMate.getNormalizedImagePlus( image, 0.015, 0.985, 1, true );
+		YeastMate.releaseNormalizedImagePlus( normalizedIP );
+		return normalizedIP;
+	}
+
+	@Benchmark
+	public byte[] encodeTiff() throws IOException {
+		return YeastMate.encodeTiff( normalized );
+	}
+
+	@Benchmark
+	public ImagePlus parseMaskFromResult() {
+		return YeastMate.parseMaskFromResult( response, "mask" );
+	}
+}
@@ -0,0 +1,104 @@
+package yeastmate;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * per-frame work on the detections of a response: walking the JSON objects (once for tracking, once for ROIs)
+ * vs. parsing them once into a {@link DetectionTable}
+ *
+ * run with -prof gc to compare allocation rates
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DetectionParsingBenchmark {
+
+	@Param({ "100", "1000", "5000" })
+	public int nCells;
+
+	private JSONObject detections;
+
+	@Setup
+	public void setup() throws JSONException {
+		detections = SyntheticData.detections( nCells, 42 );
+	}
+
+	@Benchmark
+	public int walkJson() throws JSONException {
+		// what tracking and ROI creation did per frame before: two walks over the JSON objects
+		final Set<Integer> compoundLabels = new HashSet<>();
+		Iterator<?> keysIt = detections.keys();
+		while (keysIt.hasNext())
+		{
+			final String key = (String) keysIt.next();
+			final JSONObject detection = detections.getJSONObject( key );
+			final JSONArray box = detection.getJSONArray( "box" );
+			final int w = box.getInt( 2 ) - box.getInt( 0 );
+			final String classCode = detection.getJSONArray( "class" ).getString( 0 );
+			if (classCode.equals( "1" ) || classCode.equals( "2" ))
+				compoundLabels.add( Integer.parseInt( key ) + w );
+		}
+
+		int n = 0;
+		keysIt = detections.keys();
+		while (keysIt.hasNext())
+		{
+			final String key = (String) keysIt.next();
+			final JSONObject detection = detections.getJSONObject( key );
+			final JSONArray classes = detection.getJSONArray( "class" );
+			for (int i = 0; i < classes.length(); i++)
+			{
+				final JSONArray box = detection.getJSONArray( "box" );
+				n += box.getInt( 3 ) - box.getInt( 1 );
+				if (classes.getString( i ).length() > 1)
+					n += detection.getJSONArray( "links" ).getInt( i - 1 );
+				n += Integer.parseInt( key );
+			}
+		}
+		return n + compoundLabels.size();
+	}
+
+	@Benchmark
+	public int parseTable() throws JSONException {
+		final DetectionTable table = DetectionTable.fromJSON( detections );
+		final Set<Integer> compoundLabels = new HashSet<>();
+		for (int d = 0; d < table.size(); d++)
+		{
+			final int classCode = table.getClass( d, 0 );
+			if (classCode == 1 || classCode == 2)
+				compoundLabels.add( table.getId( d ) + (int) ( table.getBox( d, 2 ) - table.getBox( d, 0 ) ) );
+		}
+
+		int n = 0;
+		for (int d = 0; d < table.size(); d++)
+			for (int i = 0; i < table.getNumberOfClasses( d ); i++)
+			{
+				n += (int) ( table.getBox( d, 3 ) - table.getBox( d, 1 ) );
+				if (table.getClass( d, i ) >= 10)
+					n += table.getLink( d, i - 1 );
+				n += table.getId( d );
+			}
+		return n + compoundLabels.size();
+	}
+}
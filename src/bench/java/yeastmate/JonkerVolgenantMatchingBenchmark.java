@@ -0,0 +1,50 @@
+package yeastmate;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JonkerVolgenantMatchingBenchmark {
+
+	// NB: dense cost matrices, 5000 x 5000 would already need 200MB
+	@Param({ "100", "500", "1000", "2000" })
+	public int n;
+
+	private double[] sparseCost;
+
+	@Setup
+	public void setup() {
+		// IoU-like cost: every row overlaps with only a few columns
+		final Random random = new Random( 42 );
+		sparseCost = new double[n * n];
+		for (int i = 0; i < n; i++)
+		{
+			sparseCost[i * n + i] = 0.5 + 0.5 * random.nextDouble();
+			for (int k = 0; k < 3; k++)
+				sparseCost[i * n + random.nextInt( n )] = 0.5 * random.nextDouble();
+		}
+	}
+
+	@Benchmark
+	public Map<Integer, Integer> linearSumAssignment() {
+		return JonkerVolgenantMatching.linearSumAssignment( sparseCost, n, n, true );
+	}
+}
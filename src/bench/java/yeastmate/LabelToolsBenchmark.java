@@ -0,0 +1,137 @@
+package yeastmate;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ij.ImagePlus;
+import ij.gui.Roi;
+import net.imglib2.img.Img;
+import net.imglib2.img.display.imagej.ImageJFunctions;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.util.Pair;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LabelToolsBenchmark {
+
+	@Param({ "512:100", "1024:500", "2048:2000", "4096:5000" })
+	public String sizeAndCells;
+
+	private ImagePlus mask1;
+	private Img<UnsignedShortType> img1;
+	private Img<UnsignedShortType> img2;
+	private RleLabelMask rle1;
+	private RleLabelMask rle2;
+	private Map<Integer, double[]> centroids1;
+	private Map<Integer, double[]> centroids2;
+	private Map<Pair<Integer, Integer>, Double> ious;
+	private Map<Integer, Integer> labelMapping;
+	private Set<Integer> selectedLabels;
+	private short[] displayPixels;
+
+	@Setup
+	public void setup() {
+		final int[] sc = SyntheticData.parseSizeAndCells( sizeAndCells );
+		mask1 = SyntheticData.labelMask( sc[0], sc[1], 42, 0 );
+		img1 = ImageJFunctions.wrapShort( mask1 );
+		// second frame: same cells, slightly moved
+		final ImagePlus mask2 = SyntheticData.labelMask( sc[0], sc[1], 42, 2 );
+		img2 = ImageJFunctions.wrapShort( mask2 );
+		ious = LabelTools.getIoUs( img1, img2 );
+		rle1 = RleLabelMask.fromImagePlus( mask1 );
+		rle2 = RleLabelMask.fromImagePlus( mask2 );
+		centroids1 = rle1.getCentersOfMass();
+		centroids2 = rle2.getCentersOfMass();
+
+		// involution (l -> n+1-l), so that repeated relabeling keeps a valid mask
+		labelMapping = new HashMap<>();
+		for (int l = 1; l <= sc[1]; l++)
+			labelMapping.put( l, sc[1] + 1 - l );
+
+		selectedLabels = new HashSet<>();
+		for (int l = 1; l <= sc[1]; l += 2)
+			selectedLabels.add( l );
+		displayPixels = new short[sc[0] * sc[0]];
+	}
+
+	@Benchmark
+	public Map<Pair<Integer, Integer>, Double> getIoUs() {
+		return LabelTools.getIoUs( img1, img2 );
+	}
+
+	@Benchmark
+	public Map<Pair<Integer, Integer>, Double> getIoUsRle() {
+		return rle1.getIoUs( rle2 );
+	}
+
+	@Benchmark
+	public RleLabelMask encodeRle() {
+		return RleLabelMask.fromImagePlus( mask1 );
+	}
+
+	@Benchmark
+	public Map<Integer, double[]> getCentersOfMass() {
+		return LabelTools.getCentersOfMass( img1 );
+	}
+
+	@Benchmark
+	public Map<Integer, double[]> getCentersOfMassRle() {
+		return rle1.getCentersOfMass();
+	}
+
+	@Benchmark
+	public Map<Integer, Integer> matchLabelsMinimizeDistanceGated() {
+		// centroid tracking as in the plugin: k-d tree gate, then assignment per connected component
+		final Map<Pair<Integer, Integer>, Double> distances = LabelTools.getDistances( centroids1, centroids2, 20 );
+		return LabelTools.matchLabelsMinimizeDistanceSparse( distances, 20 );
+	}
+
+	@Benchmark
+	public Map<Integer, Integer> matchLabelsMaximizeIoU() {
+		return LabelTools.matchLabelsMaximizeIoU( ious, 0.25 );
+	}
+
+	@Benchmark
+	public Img<UnsignedShortType> relabelMap() {
+		LabelTools.relabelMap( img1, labelMapping );
+		return img1;
+	}
+
+	@Benchmark
+	public short[] relabelLUT() {
+		// mask display: keep every other label and relabel in one pass
+		final short[] pixels = (short[]) mask1.getProcessor().getPixels();
+		final short[] lut = LabelTools.getLabelLUT( labelMapping, selectedLabels );
+		LabelTools.applyLabelLUT( pixels, lut, displayPixels );
+		return displayPixels;
+	}
+
+	@Benchmark
+	public RleLabelMask relabelRle() {
+		return rle1.relabel( labelMapping );
+	}
+
+	@Benchmark
+	public Map<Integer, Roi> getLabelROIMap() {
+		return YeastMate.getLabelROIMap( mask1 );
+	}
+}
@@ -0,0 +1,96 @@
+package yeastmate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.json.JSONObject;
+import org.scijava.log.StderrLogService;
+
+import ij.ImagePlus;
+
+/**
+ * drives the client request path (normalization, encoding, /predict, decoding) against a detection server
+ * and reports throughput and latency percentiles
+ * 
+ * usage: LoadGenerator [address or "embedded"] [frames] [concurrency] [image size] [server latency ms]
+ * (concurrency 0: adapt requests in flight while running)
+ */
+public class LoadGenerator {
+
+	public static void main(String[] args) throws Exception {
+		String address = args.length > 0 ? args[0] : "embedded";
+		final int frames = args.length > 1 ? Integer.parseInt( args[1] ) : 100;
+		final int concurrency = args.length > 2 ? Integer.parseInt( args[2] ) : 4;
+		final int threads = concurrency > 0 ? concurrency : AdaptiveConcurrencyLimit.MAX_PER_BACKEND;
+		final int size = args.length > 3 ? Integer.parseInt( args[3] ) : 1024;
+		final long serverLatency = args.length > 4 ? Long.parseLong( args[4] ) : 100;
+
+		StandInDetectionServer server = null;
+		if (address.equals( "embedded" ))
+		{
+			server = new StandInDetectionServer( 0, null, 200, serverLatency, serverLatency / 10, concurrency > 0 ? concurrency : 4 );
+			server.start();
+			address = server.getAddress();
+		}
+
+		final ImagePlus image = SyntheticData.image( SyntheticData.labelMask( size, 200, 42, 0 ), 42 );
+		final ImagePlus normalized = YeastMate.getNormalizedImagePlus( image, 0.015, 0.985, 1 );
+
+		final DetectionMetrics metrics = new DetectionMetrics();
+		final AdaptiveConcurrencyLimit limit = concurrency > 0 ? AdaptiveConcurrencyLimit.fixed( concurrency ) : new AdaptiveConcurrencyLimit( 2, threads );
+		final RemoteDetectionClient client = new RemoteDetectionClient( new DetectionBackends( address ), limit, new StderrLogService(), 120000, 0, 0 );
+		final long[] latencies = new long[frames];
+		final ExecutorService executor = Executors.newFixedThreadPool( threads );
+		final String target = address;
+		final List<Future<JSONObject>> futures = new ArrayList<>();
+		for (int i = 0; i < frames; i++)
+		{
+			final int frame = i;
+			futures.add( executor.submit( () -> {
+				final long start = System.nanoTime();
+				final JSONObject result = YeastMate.runRemoteDetection( normalized, client, 0.9, 0.75, 0.75, metrics, frame );
+				// failed requests are counted below
+				if (result == null)
+					return null;
+				// decode mask as well, this is part of the client-side work per frame
+				YeastMate.parseMaskFromResult( result, "mask" );
+				latencies[frame] = System.nanoTime() - start;
+				metrics.frameDone( frame );
+				return result;
+			} ) );
+		}
+
+		int failed = 0;
+		for (Future<JSONObject> future : futures)
+			if (future.get() == null)
+				failed++;
+		metrics.finish();
+		executor.shutdown();
+		client.close();
+		if (server != null)
+			server.stop();
+
+		// latencies of successful frames only
+		final long[] sorted = Arrays.stream( latencies ).filter( l -> l > 0 ).sorted().toArray();
+		System.out.println( String.format( Locale.ROOT, "%d frames (%d failed) of %dx%d at concurrency %d against %s", frames, failed, size, size, concurrency, target ) );
+		System.out.println( String.format( Locale.ROOT, "throughput: %.2f frames/s", metrics.getFramesPerSecond() ) );
+		if (sorted.length > 0)
+			System.out.println( String.format( Locale.ROOT, "latency p50=%.1fms p90=%.1fms p99=%.1fms max=%.1fms",
+					percentile( sorted, 0.5 ), percentile( sorted, 0.9 ), percentile( sorted, 0.99 ), sorted[sorted.length - 1] / 1e6 ) );
+		System.out.println( metrics.summary() );
+		System.out.println( limit.summary() );
+	}
+
+	/**
+	 * nearest-rank percentile of sorted latencies in milliseconds
+	 */
+	private static double percentile(long[] sortedNanos, double p) {
+		final int idx = (int) Math.ceil( p * sortedNanos.length ) - 1;
+		return sortedNanos[Math.max( 0, idx )] / 1e6;
+	}
+}
@@ -0,0 +1,118 @@
+package yeastmate;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.math3.stat.descriptive.rank.Percentile;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.imglib2.Cursor;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.view.Views;
+
+/**
+ * normalization of a frame: imglib2 cursor + Percentile (as done for downsampled frames)
+ * vs. {@link PixelKernels} on the plane array (histogram quantiles for 16-bit)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NormalizationBenchmark {
+
+	@Param({ "1024", "2048", "4096" })
+	public int size;
+
+	@Param({ "16-bit", "32-bit" })
+	public String type;
+
+	private Object plane;
+	private Img<? extends RealType<?>> img;
+	private double[] pixels;
+	private float[] normalized;
+
+	@Setup
+	public void setup() {
+		final int n = size * size;
+		final Random random = new Random( 42 );
+		if (type.equals( "16-bit" ))
+		{
+			final short[] shorts = new short[n];
+			for (int i = 0; i < n; i++)
+				shorts[i] = (short) Math.max( 0, ( random.nextInt( 4 ) == 0 ? 1000 : 100 ) + 10 * random.nextGaussian() );
+			plane = shorts;
+			img = ArrayImgs.unsignedShorts( shorts, size, size );
+		}
+		else
+		{
+			final float[] floats = new float[n];
+			for (int i = 0; i < n; i++)
+				floats[i] = (float) ( ( random.nextInt( 4 ) == 0 ? 1000 : 100 ) + 10 * random.nextGaussian() );
+			plane = floats;
+			img = ArrayImgs.floats( floats, size, size );
+		}
+		pixels = new double[n];
+		normalized = new float[n];
+	}
+
+	@Benchmark
+	public float[] cursorAndPercentile() {
+		final int n = size * size;
+		double min = Double.MAX_VALUE;
+		double max = -Double.MAX_VALUE;
+		final Cursor<? extends RealType<?>> cursor = Views.flatIterable( img ).cursor();
+		for (int i = 0; i < n; i++)
+		{
+			final double v = cursor.next().getRealDouble();
+			pixels[i] = v;
+			min = Math.min( min, v );
+			max = Math.max( max, v );
+		}
+		final Percentile percentile = new Percentile();
+		final double minPerc = percentile.evaluate( pixels, 1.5 );
+		final double maxPerc = percentile.evaluate( pixels, 98.5 );
+		for (int i = 0; i < n; i++)
+			normalized[i] = (float) ( ( pixels[i] - minPerc ) / ( maxPerc - minPerc ) );
+		normalized[0] += min + max;
+		return normalized;
+	}
+
+	@Benchmark
+	public float[] kernels() {
+		final int n = size * size;
+		PixelKernels.toDoubles( plane, pixels, n );
+		final double[] minMax = PixelKernels.minMax( pixels, n );
+		final int[] histogram = PixelKernels.histogram( plane, n );
+		final double minPerc;
+		final double maxPerc;
+		if (histogram != null)
+		{
+			minPerc = PixelKernels.percentile( histogram, n, 1.5 );
+			maxPerc = PixelKernels.percentile( histogram, n, 98.5 );
+		}
+		else
+		{
+			final Percentile percentile = new Percentile();
+			percentile.setData( pixels );
+			minPerc = percentile.evaluate( 1.5 );
+			maxPerc = percentile.evaluate( 98.5 );
+		}
+		PixelKernels.normalize( pixels, normalized, n, minPerc, maxPerc - minPerc );
+		normalized[0] += minMax[0] + minMax[1];
+		return normalized;
+	}
+}
@@ -0,0 +1,203 @@
+package yeastmate;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Base64;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import ij.ImagePlus;
+import ij.io.Opener;
+
+/**
+ * embedded stand-in for the YeastMate detection server implementing /status and /predict
+ * (multipart TIFF image + JSON thresholds in, optionally gzip-compressed, JSON detections + base64 TIFF mask out)
+ * 
+ * responses are either a recorded response JSON or a synthetic mask with the size of the request image,
+ * optionally delayed to emulate inference time
+ */
+public class StandInDetectionServer {
+
+	private final HttpServer server;
+	private final ExecutorService executor;
+	private final String recordedResponse;
+	private final int nCells;
+	private final long latencyMs;
+	private final long latencyJitterMs;
+	private final Random random = new Random( 42 );
+
+	// synthetic responses per image size, so that only the configured latency is spent per request
+	private final Map<String, byte[]> syntheticResponses = new ConcurrentHashMap<>();
+
+	/**
+	 * @param port            port to listen on, 0 for any free port
+	 * @param recordedResponse response JSON to return for every request or null to generate synthetic masks
+	 * @param nCells          number of cells in synthetic masks
+	 * @param latencyMs       simulated inference time per request
+	 * @param latencyJitterMs maximum additional random delay per request
+	 * @param threads         number of request handler threads (i.e. simulated GPU workers)
+	 */
+	public StandInDetectionServer(int port, String recordedResponse, int nCells, long latencyMs, long latencyJitterMs, int threads) throws IOException {
+		this.recordedResponse = recordedResponse;
+		this.nCells = nCells;
+		this.latencyMs = latencyMs;
+		this.latencyJitterMs = latencyJitterMs;
+
+		server = HttpServer.create( new InetSocketAddress( "127.0.0.1", port ), 0 );
+		executor = Executors.newFixedThreadPool( threads );
+		server.setExecutor( executor );
+		server.createContext( "/status", this::handleStatus );
+		server.createContext( "/predict", this::handlePredict );
+	}
+
+	public void start() {
+		server.start();
+	}
+
+	public void stop() {
+		server.stop( 0 );
+		executor.shutdownNow();
+		try {
+			executor.awaitTermination( 1, TimeUnit.SECONDS );
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	public String getAddress() {
+		return "127.0.0.1:" + server.getAddress().getPort();
+	}
+
+	private void handleStatus(HttpExchange exchange) throws IOException {
+		respond( exchange, 200, ( "{\"name\":\"YeastMate\",\"model_version\":\"stand-in\","
+				+ "\"input_encodings\":[\"float32\",\"uint16_fixed_point\"],\"request_compression\":[\"gzip\"],"
+				+ "\"mask_encodings\":[\"tiff\"],\"max_batch_size\":1}" ).getBytes( StandardCharsets.UTF_8 ) );
+	}
+
+	private void handlePredict(HttpExchange exchange) throws IOException {
+		final InputStream body = "gzip".equals( exchange.getRequestHeaders().getFirst( "Content-Encoding" ) )
+				? new GZIPInputStream( exchange.getRequestBody() )
+				: exchange.getRequestBody();
+		final byte[] request = readAll( body );
+		try
+		{
+			final byte[] response;
+			if (recordedResponse != null)
+				response = recordedResponse.getBytes( StandardCharsets.UTF_8 );
+			else
+			{
+				final String boundary = exchange.getRequestHeaders().getFirst( "Content-Type" ).replaceAll( ".*boundary=([^;\\s]+).*", "$1" );
+				final ImagePlus image = new Opener().openTiff( new ByteArrayInputStream( getPart( request, boundary, "image" ) ), "request" );
+				response = syntheticResponses.computeIfAbsent( image.getWidth() + "x" + image.getHeight(),
+						k -> syntheticResponse( image.getWidth(), image.getHeight() ) );
+			}
+
+			final long delay = latencyMs + ( latencyJitterMs > 0 ? (long) ( random.nextDouble() * latencyJitterMs ) : 0 );
+			if (delay > 0)
+				Thread.sleep( delay );
+
+			respond( exchange, 200, response );
+		}
+		catch (InterruptedException e) {
+			// server is being stopped while emulating latency: drop the request, so the handler thread ends
+			Thread.currentThread().interrupt();
+			exchange.close();
+		}
+		catch (RuntimeException e) {
+			e.printStackTrace();
+			respond( exchange, 500, e.toString().getBytes( StandardCharsets.UTF_8 ) );
+		}
+	}
+
+	/**
+	 * synthetic mask with single cells and a mating (two cells and compound object) for every 10 cells
+	 */
+	private byte[] syntheticResponse(int width, int height) {
+		final ImagePlus mask = SyntheticData.labelMask( width, height, nCells, 42, 0 );
+		try
+		{
+			final JSONObject detections = SyntheticData.detections( SyntheticData.boundingBoxes( mask, nCells ) );
+			final JSONObject result = new JSONObject();
+			result.put( "detections", detections );
+			result.put( "mask", Base64.getEncoder().encodeToString( YeastMate.encodeTiff( mask ) ) );
+			return result.toString().getBytes( StandardCharsets.UTF_8 );
+		}
+		catch (JSONException | IOException e) {
+			throw new RuntimeException( e );
+		}
+	}
+
+	/**
+	 * extract the body of a named part from a multipart/form-data request
+	 */
+	private static byte[] getPart(byte[] request, String boundary, String name) {
+		final String content = new String( request, StandardCharsets.ISO_8859_1 );
+		final int nameIdx = content.indexOf( "name=\"" + name + "\"" );
+		if (nameIdx < 0)
+			throw new IllegalArgumentException( "no part " + name + " in request" );
+		final int start = content.indexOf( "\r\n\r\n", nameIdx ) + 4;
+		final int end = content.indexOf( "\r\n--" + boundary, start );
+		return content.substring( start, end ).getBytes( StandardCharsets.ISO_8859_1 );
+	}
+
+	private static byte[] readAll(InputStream in) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final byte[] buffer = new byte[1 << 16];
+		int n;
+		while (( n = in.read( buffer ) ) > 0)
+			out.write( buffer, 0, n );
+		return out.toByteArray();
+	}
+
+	private static void respond(HttpExchange exchange, int code, byte[] body) throws IOException {
+		exchange.getResponseHeaders().add( "Content-Type", "application/json" );
+		exchange.sendResponseHeaders( code, body.length );
+		try (OutputStream out = exchange.getResponseBody())
+		{
+			out.write( body );
+		}
+	}
+
+	/**
+	 * run stand-in server until killed
+	 * 
+	 * usage: StandInDetectionServer [port] [latencyMs] [threads] [nCells or recorded response JSON file]
+	 */
+	public static void main(String[] args) throws IOException {
+		final int port = args.length > 0 ? Integer.parseInt( args[0] ) : 11005;
+		final long latency = args.length > 1 ? Long.parseLong( args[1] ) : 100;
+		final int threads = args.length > 2 ? Integer.parseInt( args[2] ) : 1;
+		String recorded = null;
+		int nCells = 200;
+		if (args.length > 3)
+		{
+			if (args[3].matches( "\\d+" ))
+				nCells = Integer.parseInt( args[3] );
+			else
+				recorded = new String( Files.readAllBytes( Paths.get( args[3] ) ), StandardCharsets.UTF_8 );
+		}
+
+		final StandInDetectionServer server = new StandInDetectionServer( port, recorded, nCells, latency, latency / 10, threads );
+		server.start();
+		System.out.println( "stand-in YeastMate server listening on " + server.getAddress() );
+	}
+}
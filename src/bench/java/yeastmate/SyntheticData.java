@@ -0,0 +1,155 @@
+package yeastmate;
+
+import java.util.Random;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import ij.ImagePlus;
+import ij.process.ShortProcessor;
+
+/**
+ * synthetic label masks and images of roughly realistic yeast field-of-view statistics for benchmarks
+ */
+public class SyntheticData {
+
+	/**
+	 * paint nCells discs (labels 1..nCells) at random positions into a size x size 16-bit mask
+	 * 
+	 * @param size   width and height of mask
+	 * @param nCells number of cells
+	 * @param seed   random seed, same seed gives same cell positions
+	 * @param shift  x-offset applied to all cells (to simulate movement between frames)
+	 * @return 16-bit label mask
+	 */
+	public static ImagePlus labelMask(int size, int nCells, long seed, int shift) {
+		return labelMask( size, size, nCells, seed, shift );
+	}
+
+	public static ImagePlus labelMask(int width, int height, int nCells, long seed, int shift) {
+		// cells should cover about a quarter of the field of view
+		final int radius = (int) Math.max( 3, Math.sqrt( 0.25 * width * height / ( nCells * Math.PI ) ) );
+		final short[] pixels = new short[width * height];
+		final Random random = new Random( seed );
+
+		for (int label = 1; label <= nCells; label++)
+		{
+			final int cx = random.nextInt( width ) + shift;
+			final int cy = random.nextInt( height );
+			for (int y = Math.max( 0, cy - radius ); y < Math.min( height, cy + radius + 1 ); y++)
+				for (int x = Math.max( 0, cx - radius ); x < Math.min( width, cx + radius + 1 ); x++)
+					if (( x - cx ) * ( x - cx ) + ( y - cy ) * ( y - cy ) <= radius * radius)
+						pixels[y * width + x] = (short) label;
+		}
+		return new ImagePlus( "synthetic mask", new ShortProcessor( width, height, pixels, null ) );
+	}
+
+	/**
+	 * 16-bit image with noisy background and bright cells at the positions of mask
+	 */
+	public static ImagePlus image(ImagePlus mask, long seed) {
+		final short[] labels = (short[]) mask.getProcessor().getPixels();
+		final short[] pixels = new short[labels.length];
+		final Random random = new Random( seed );
+		for (int i = 0; i < pixels.length; i++)
+			pixels[i] = (short) Math.max( 0, ( labels[i] == 0 ? 100 : 1000 ) + 10 * random.nextGaussian() );
+		return new ImagePlus( "synthetic image", new ShortProcessor( mask.getWidth(), mask.getHeight(), pixels, null ) );
+	}
+
+	/**
+	 * x1, y1, x2, y2 bounding boxes of labels 1..nCells of mask (null for labels that are not in the mask)
+	 */
+	public static int[][] boundingBoxes(ImagePlus mask, int nCells) {
+		final short[] pixels = (short[]) mask.getProcessor().getPixels();
+		final int width = mask.getWidth();
+		final int[][] boxes = new int[nCells + 1][];
+		for (int y = 0; y < mask.getHeight(); y++)
+			for (int x = 0; x < width; x++)
+			{
+				final int label = pixels[y * width + x] & 0xffff;
+				if (label == 0)
+					continue;
+				if (boxes[label] == null)
+					boxes[label] = new int[] { x, y, x + 1, y + 1 };
+				final int[] box = boxes[label];
+				box[0] = Math.min( box[0], x );
+				box[1] = Math.min( box[1], y );
+				box[2] = Math.max( box[2], x + 1 );
+				box[3] = Math.max( box[3], y + 1 );
+			}
+		return boxes;
+	}
+
+	/**
+	 * detections JSON for nCells random 20x20 boxes, see {@link #detections(int[][])}
+	 */
+	public static JSONObject detections(int nCells, long seed) throws JSONException {
+		final Random random = new Random( seed );
+		final int size = (int) Math.sqrt( nCells ) * 40;
+		final int[][] boxes = new int[nCells + 1][];
+		for (int label = 1; label <= nCells; label++)
+		{
+			final int x = random.nextInt( size );
+			final int y = random.nextInt( size );
+			boxes[label] = new int[] { x, y, x + 20, y + 20 };
+		}
+		return detections( boxes );
+	}
+
+	/**
+	 * detections JSON as sent by the server: single cells for all boxes (index = label),
+	 * every 10th cell forms a mating with the previous one
+	 */
+	public static JSONObject detections(int[][] boxes) throws JSONException {
+		final int nCells = boxes.length - 1;
+		final JSONObject detections = new JSONObject();
+		int compoundId = nCells;
+		int lastSingle = -1;
+		for (int label = 1; label <= nCells; label++)
+		{
+			// label completely overpainted by other cells
+			if (boxes[label] == null)
+				continue;
+			final JSONObject detection = detection( "0", boxes[label] );
+			detections.put( Integer.toString( label ), detection );
+
+			if (label % 10 == 0 && lastSingle > 0)
+			{
+				final JSONObject mother = detections.getJSONObject( Integer.toString( lastSingle ) );
+				compoundId++;
+				mother.getJSONArray( "class" ).put( "1.1" );
+				mother.getJSONArray( "score" ).put( 0.9 );
+				mother.put( "links", new JSONArray().put( compoundId ) );
+				detection.getJSONArray( "class" ).put( "1.2" );
+				detection.getJSONArray( "score" ).put( 0.9 );
+				detection.put( "links", new JSONArray().put( compoundId ) );
+
+				final int[] b1 = boxes[lastSingle];
+				final int[] b2 = boxes[label];
+				final JSONObject compound = detection( "1", new int[] { Math.min( b1[0], b2[0] ), Math.min( b1[1], b2[1] ), Math.max( b1[2], b2[2] ), Math.max( b1[3], b2[3] ) } );
+				compound.put( "links", new JSONArray().put( lastSingle ).put( label ) );
+				detections.put( Integer.toString( compoundId ), compound );
+			}
+			lastSingle = label;
+		}
+		return detections;
+	}
+
+	private static JSONObject detection(String classCode, int[] box) throws JSONException {
+		final JSONObject detection = new JSONObject();
+		detection.put( "class", new JSONArray().put( classCode ) );
+		detection.put( "score", new JSONArray().put( 0.99 ) );
+		detection.put( "box", new JSONArray().put( box[0] ).put( box[1] ).put( box[2] ).put( box[3] ) );
+		detection.put( "links", new JSONArray() );
+		return detection;
+	}
+
+	/**
+	 * parse "size:cells" benchmark parameter
+	 */
+	public static int[] parseSizeAndCells(String sizeAndCells) {
+		final String[] parts = sizeAndCells.split( ":" );
+		return new int[] { Integer.parseInt( parts[0] ), Integer.parseInt( parts[1] ) };
+	}
+}
@@ -0,0 +1,127 @@
+package yeastmate;
+
+import java.util.Locale;
+
+/**
+ * limit of detection requests in flight, optionally adapted while running (AIMD)
+ *
+ * More requests in flight hide network and encoding time, but once the servers are busy they only queue there.
+ * So the limit grows by one per round of successful requests (additive increase) while request latency stays
+ * within LATENCY_TOLERANCE of the lowest recent latency, and shrinks by DECREASE_FACTOR (multiplicative decrease)
+ * if requests get slower or fail. Requests that were started before the last decrease do not decrease again,
+ * an overloaded round counts as one signal.
+ */
+public class AdaptiveConcurrencyLimit {
+
+	// upper bound of the adaptive limit per server
+	public static final int MAX_PER_BACKEND = 8;
+
+	private static final double LATENCY_TOLERANCE = 2.0;
+	private static final double DECREASE_FACTOR = 0.75;
+
+	// number of recent latencies the lowest latency is taken from: long enough not to forget the unloaded latency
+	// while requests queue, short enough to follow slow changes (e.g. image size)
+	private static final int LATENCY_WINDOW = 500;
+
+	private final boolean adaptive;
+	private final int maxLimit;
+	private double limit;
+	private int inFlight;
+
+	private final long[] latencies = new long[LATENCY_WINDOW];
+	private int nLatencies;
+	private long lastDecrease = Long.MIN_VALUE;
+
+	// range the limit took, for reporting
+	private int lowestLimit;
+	private int highestLimit;
+
+	/**
+	 * adaptive limit
+	 *
+	 * @param initialLimit requests in flight to start with
+	 * @param maxLimit     upper bound
+	 */
+	public AdaptiveConcurrencyLimit(int initialLimit, int maxLimit) {
+		this( initialLimit, maxLimit, true );
+	}
+
+	private AdaptiveConcurrencyLimit(int initialLimit, int maxLimit, boolean adaptive) {
+		this.adaptive = adaptive;
+		this.maxLimit = Math.max( 1, maxLimit );
+		this.limit = Math.max( 1, Math.min( initialLimit, this.maxLimit ) );
+		lowestLimit = highestLimit = (int) limit;
+	}
+
+	/**
+	 * limit that does not change
+	 */
+	public static AdaptiveConcurrencyLimit fixed(int limit) {
+		return new AdaptiveConcurrencyLimit( limit, limit, false );
+	}
+
+	/**
+	 * wait until another request may be sent
+	 */
+	public synchronized void acquire() throws InterruptedException {
+		while (inFlight >= (int) limit)
+			wait();
+		inFlight++;
+	}
+
+	public synchronized void release() {
+		inFlight--;
+		notifyAll();
+	}
+
+	/**
+	 * report finished request (aborted requests should not be reported)
+	 *
+	 * @param startNanos System.nanoTime() when request was sent
+	 * @param success    whether the server answered
+	 */
+	public synchronized void onResult(long startNanos, boolean success) {
+		final long now = System.nanoTime();
+		if (success)
+		{
+			latencies[nLatencies % LATENCY_WINDOW] = now - startNanos;
+			nLatencies++;
+		}
+		if (!adaptive)
+			return;
+
+		if (success && now - startNanos <= LATENCY_TOLERANCE * getMinLatency())
+			limit = Math.min( maxLimit, limit + 1.0 / limit );
+		else if (startNanos >= lastDecrease)
+		{
+			limit = Math.max( 1, limit * DECREASE_FACTOR );
+			lastDecrease = now;
+		}
+		lowestLimit = Math.min( lowestLimit, (int) limit );
+		highestLimit = Math.max( highestLimit, (int) limit );
+		notifyAll();
+	}
+
+	private long getMinLatency() {
+		long min = Long.MAX_VALUE;
+		for (int i = 0; i < Math.min( nLatencies, LATENCY_WINDOW ); i++)
+			min = Math.min( min, latencies[i] );
+		return min;
+	}
+
+	public synchronized int getLimit() {
+		return (int) limit;
+	}
+
+	public int getMaxLimit() {
+		return maxLimit;
+	}
+
+	public synchronized String summary() {
+		final String latency = nLatencies == 0 ? "" : String.format( Locale.ROOT, ", lowest latency %.1f ms", getMinLatency() / 1e6 );
+		if (!adaptive)
+			return "YeastMate: " + (int) limit + " request(s) in flight" + latency;
+		return String.format( Locale.ROOT, "YeastMate: %d request(s) in flight (adapted between %d and %d, at most %d)%s",
+				(int) limit, lowestLimit, highestLimit, maxLimit, latency );
+	}
+}
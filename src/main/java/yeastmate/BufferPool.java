@@ -0,0 +1,183 @@
+package yeastmate;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.function.ToIntFunction;
+
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.mime.MIME;
+import org.apache.http.entity.mime.content.AbstractContentBody;
+
+/**
+ * recycles the large per-frame arrays (normalization input, normalized pixels, encoded request bodies),
+ * so that processing a timeseries does not allocate new buffers for every frame.
+ *
+ * Arrays are matched by exact length, which is what we need for frames of the same size.
+ * At most maxPooled buffers of each kind are kept, released buffers beyond that are left to the GC.
+ */
+public class BufferPool {
+
+	private final int maxPooled;
+	private final ArrayDeque<double[]> doubles = new ArrayDeque<>();
+	private final ArrayDeque<float[]> floats = new ArrayDeque<>();
+	private final ArrayDeque<short[]> shorts = new ArrayDeque<>();
+	private final ArrayDeque<Bytes> bytes = new ArrayDeque<>();
+
+	public BufferPool(int maxPooled) {
+		this.maxPooled = maxPooled;
+	}
+
+	/**
+	 * @return array of length n, contents undefined
+	 */
+	public synchronized double[] doubles(int n) {
+		final double[] a = take( doubles, n, x -> x.length );
+		return a != null ? a : new double[n];
+	}
+
+	/**
+	 * @return array of length n, contents undefined
+	 */
+	public synchronized float[] floats(int n) {
+		final float[] a = take( floats, n, x -> x.length );
+		return a != null ? a : new float[n];
+	}
+
+	/**
+	 * @return array of length n, contents undefined
+	 */
+	public synchronized short[] shorts(int n) {
+		final short[] a = take( shorts, n, x -> x.length );
+		return a != null ? a : new short[n];
+	}
+
+	/**
+	 * @return empty byte buffer (reusing the capacity of a previously released one)
+	 */
+	public synchronized Bytes bytes() {
+		final Bytes b = bytes.poll();
+		if (b == null)
+			return new Bytes();
+		b.reset();
+		return b;
+	}
+
+	public synchronized void release(double[] a) {
+		offer( doubles, a );
+	}
+
+	public synchronized void release(float[] a) {
+		offer( floats, a );
+	}
+
+	public synchronized void release(short[] a) {
+		offer( shorts, a );
+	}
+
+	public synchronized void release(Bytes b) {
+		offer( bytes, b );
+	}
+
+	private static <T> T take(ArrayDeque<T> pool, int n, ToIntFunction<T> length) {
+		final Iterator<T> it = pool.iterator();
+		while (it.hasNext())
+		{
+			final T a = it.next();
+			if (length.applyAsInt( a ) == n)
+			{
+				it.remove();
+				return a;
+			}
+		}
+		return null;
+	}
+
+	private <T> void offer(ArrayDeque<T> pool, T a) {
+		if (a == null)
+			return;
+		// keep the most recently used sizes
+		if (pool.size() >= maxPooled)
+			pool.pollLast();
+		pool.addFirst( a );
+	}
+
+	/**
+	 * growable byte buffer whose backing array can be sent without copying
+	 */
+	public static class Bytes extends ByteArrayOutputStream {
+
+		/**
+		 * @return multipart body of the current contents (not copied, so the buffer must not be reset while the request is in use)
+		 */
+		public AbstractContentBody asContentBody(ContentType contentType, String filename) {
+			final byte[] data = buf;
+			final int length = count;
+			return new AbstractContentBody( contentType ) {
+
+				@Override
+				public String getFilename() {
+					return filename;
+				}
+
+				@Override
+				public void writeTo(OutputStream out) throws IOException {
+					out.write( data, 0, length );
+				}
+
+				@Override
+				public String getTransferEncoding() {
+					return MIME.ENC_BINARY;
+				}
+
+				@Override
+				public long getContentLength() {
+					return length;
+				}
+			};
+		}
+
+		/**
+		 * @return request body of the current contents (not copied, as above)
+		 */
+		public AbstractHttpEntity asEntity(String contentType, String contentEncoding) {
+			final byte[] data = buf;
+			final int length = count;
+			final AbstractHttpEntity entity = new AbstractHttpEntity() {
+
+				@Override
+				public boolean isRepeatable() {
+					return true;
+				}
+
+				@Override
+				public long getContentLength() {
+					return length;
+				}
+
+				@Override
+				public InputStream getContent() {
+					return new ByteArrayInputStream( data, 0, length );
+				}
+
+				@Override
+				public void writeTo(OutputStream out) throws IOException {
+					out.write( data, 0, length );
+				}
+
+				@Override
+				public boolean isStreaming() {
+					return false;
+				}
+			};
+			entity.setContentType( contentType );
+			entity.setContentEncoding( contentEncoding );
+			return entity;
+		}
+	}
+}
@@ -0,0 +1,210 @@
+package yeastmate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * set of detection servers, frames are dispatched to the least-loaded healthy server
+ */
+public class DetectionBackends {
+
+	// requests in flight per server: one being processed, one queued so the GPU never idles
+	public static final int MAX_IN_FLIGHT_PER_BACKEND = 2;
+
+	// re-check unhealthy servers via /status after this time
+	private static final long HEALTH_CHECK_INTERVAL_MS = 5000;
+
+	// weight of newest request in moving average of latency
+	private static final double LATENCY_SMOOTHING = 0.2;
+
+	// re-checks of unhealthy servers, so no request thread waits for a server that is down
+	private static final ExecutorService HEALTH_CHECKS = Executors.newCachedThreadPool( r -> {
+		Thread t = new Thread( r, "YeastMate health check" );
+		t.setDaemon( true );
+		return t;
+	});
+
+	/**
+	 * how a request ended, only connection failures take a server out of rotation
+	 */
+	public enum Outcome {
+		SUCCESS,
+		// server not reachable, connection reset or timed out
+		CONNECTION_FAILED,
+		// server answered, but not with a result (error status or unreadable response for this frame)
+		REJECTED,
+		// aborted on purpose (hedging, cancel)
+		ABORTED
+	}
+
+	public static class Backend {
+		public final String address;
+		private int inFlight = 0;
+		private double meanLatencyMs = 0;
+		private boolean healthy = true;
+		private long lastHealthCheck = 0;
+		private boolean checking = false;
+
+		private Backend(String address) {
+			this.address = address;
+		}
+
+		private double getLoad() {
+			// unknown latency (no request finished yet) -> only count requests
+			return ( inFlight + 1 ) * Math.max( meanLatencyMs, 1.0 );
+		}
+	}
+
+	private final List<Backend> backends = new ArrayList<>();
+
+	/**
+	 * @param addresses one or more host:port, separated by commas, semicolons or whitespace
+	 * @throws IllegalArgumentException if no address is given
+	 */
+	public DetectionBackends(String addresses) {
+		for (String address : parseAddresses( addresses ))
+			backends.add( new Backend( address ) );
+		// NB: fail here rather than on the first frame, there is no server to send it to
+		if (backends.isEmpty())
+			throw new IllegalArgumentException( "no detection server address given" );
+	}
+
+	public static List<String> parseAddresses(String addresses) {
+		final List<String> result = new ArrayList<>();
+		if (addresses == null)
+			return result;
+		for (String address : addresses.split( "[,;\\s]+" ))
+			if (!address.isEmpty())
+				result.add( address );
+		return result;
+	}
+
+	/**
+	 * query /status of all servers (using recent cached status if available)
+	 * 
+	 * @return number of healthy servers
+	 */
+	public int checkHealth() {
+		int healthy = 0;
+		for (Backend backend : backends)
+		{
+			// NB: query outside the lock, requests may already be dispatched
+			final boolean ok = ServerStatus.query( backend.address, HEALTH_CHECK_INTERVAL_MS ).ok;
+			setHealthy( backend, ok );
+			if (ok)
+				healthy++;
+		}
+		return healthy;
+	}
+
+	private synchronized void setHealthy(Backend backend, boolean healthy) {
+		backend.healthy = healthy;
+		backend.lastHealthCheck = System.currentTimeMillis();
+		backend.checking = false;
+	}
+
+	public synchronized int getNumberOfHealthyBackends() {
+		return (int) backends.stream().filter( b -> b.healthy ).count();
+	}
+
+	public synchronized int getMaxInFlight() {
+		return Math.max( 1, getNumberOfHealthyBackends() ) * MAX_IN_FLIGHT_PER_BACKEND;
+	}
+
+	/**
+	 * @return true if all servers run on this machine
+	 */
+	public boolean isLocal() {
+		for (Backend backend : backends)
+		{
+			final String host = backend.address.replaceAll( ":\\d+$", "" );
+			if (!( host.equals( "localhost" ) || host.startsWith( "127." ) || host.equals( "[::1]" ) ))
+				return false;
+		}
+		return true;
+	}
+
+	public List<Backend> getBackends() {
+		return backends;
+	}
+
+	/**
+	 * run request against least-loaded healthy server, a null result is counted as connection failure
+	 * 
+	 * @param request function of server address to result
+	 * @return result of request
+	 */
+	public <T> T dispatch(Function<String, T> request) {
+		return dispatch( request, () -> null );
+	}
+
+	/**
+	 * run request against least-loaded healthy server
+	 * 
+	 * @param request function of server address to result
+	 * @param outcome how the request ended, asked after it returned; if null, a null result is counted as connection failure
+	 * @return result of request
+	 */
+	public <T> T dispatch(Function<String, T> request, Supplier<Outcome> outcome) {
+		final Backend backend = acquire();
+		final long start = System.nanoTime();
+		T result = null;
+		try {
+			result = request.apply( backend.address );
+			return result;
+		}
+		finally {
+			final Outcome o = outcome.get();
+			release( backend, System.nanoTime() - start, o != null ? o : result != null ? Outcome.SUCCESS : Outcome.CONNECTION_FAILED );
+		}
+	}
+
+	private synchronized Backend acquire() {
+		recheckUnhealthy();
+
+		Backend best = null;
+		for (Backend backend : backends)
+			if (backend.healthy && ( best == null || backend.getLoad() < best.getLoad() ))
+				best = backend;
+
+		// no healthy server known -> try the least busy one anyway
+		if (best == null)
+			for (Backend backend : backends)
+				if (best == null || backend.inFlight < best.inFlight)
+					best = backend;
+
+		best.inFlight++;
+		return best;
+	}
+
+	private synchronized void release(Backend backend, long nanos, Outcome outcome) {
+		backend.inFlight--;
+		if (outcome == Outcome.SUCCESS)
+		{
+			final double latencyMs = nanos / 1e6;
+			backend.meanLatencyMs = backend.meanLatencyMs == 0 ? latencyMs : ( 1 - LATENCY_SMOOTHING ) * backend.meanLatencyMs + LATENCY_SMOOTHING * latencyMs;
+		}
+		else if (outcome == Outcome.CONNECTION_FAILED)
+		{
+			backend.healthy = false;
+			backend.lastHealthCheck = System.currentTimeMillis();
+		}
+	}
+
+	/**
+	 * start a /status probe of unhealthy servers that are due, in the background
+	 * (the server stays out of rotation until the probe succeeds)
+	 */
+	private synchronized void recheckUnhealthy() {
+		for (Backend backend : backends)
+			if (!backend.healthy && !backend.checking && System.currentTimeMillis() - backend.lastHealthCheck > HEALTH_CHECK_INTERVAL_MS)
+			{
+				backend.checking = true;
+				HEALTH_CHECKS.execute( () -> setHealthy( backend, ServerStatus.query( backend.address, 0 ).ok ) );
+			}
+	}
+}
@@ -0,0 +1,258 @@
+package yeastmate;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * per-frame, per-stage timings and byte counts of a detection run
+ *
+ * Without kept frames (live runs, which can be arbitrarily long) only running totals are kept,
+ * a frame's row is dropped once the frame is done.
+ */
+public class DetectionMetrics implements DetectionMetricsMXBean {
+
+	public static final String JMX_NAME = "yeastmate:type=DetectionMetrics";
+
+	// runs are registered with a number, as several images may be detected at once (and have the same title)
+	private static final AtomicInteger RUNS = new AtomicInteger();
+
+	public enum Stage {
+		NORMALIZATION,
+		ENCODING,
+		// upload, server-side inference and download can not be told apart on the client
+		REQUEST,
+		DECODING,
+		TRACKING,
+		ROIS,
+		MASK
+	}
+
+	// per frame: nanos for every stage followed by bytes sent, bytes received
+	private final List<long[]> frames;
+	// frames not done yet, if frames are not kept
+	private final Map<Integer, long[]> openFrames = new HashMap<>();
+	// sums over all frames and number of frames with a row
+	private final long[] totals = new long[Stage.values().length + 2];
+	private int nFrames = 0;
+	private final long startNanos = System.nanoTime();
+	private long endNanos = -1;
+	// frames that were completely processed (timings may also exist for frames that were skipped or canceled)
+	private int framesDone = 0;
+	private ObjectName objectName;
+
+	public DetectionMetrics() {
+		this( true );
+	}
+
+	/**
+	 * @param keepFrames keep the row of every frame for {@link #export(File)}, otherwise only totals
+	 */
+	public DetectionMetrics(boolean keepFrames) {
+		this.frames = keepFrames ? new ArrayList<>() : null;
+	}
+
+	public synchronized void addTime(int frame, Stage stage, long nanos) {
+		getFrame( frame )[stage.ordinal()] += nanos;
+		totals[stage.ordinal()] += nanos;
+	}
+
+	public synchronized void addBytes(int frame, long sent, long received) {
+		final long[] f = getFrame( frame );
+		f[Stage.values().length] += sent;
+		f[Stage.values().length + 1] += received;
+		totals[Stage.values().length] += sent;
+		totals[Stage.values().length + 1] += received;
+	}
+
+	private long[] getFrame(int frame) {
+		if (frames == null)
+			return openFrames.computeIfAbsent( frame, f -> {
+				nFrames++;
+				return new long[Stage.values().length + 2];
+			} );
+		while (frames.size() <= frame)
+		{
+			frames.add( new long[Stage.values().length + 2] );
+			nFrames++;
+		}
+		return frames.get( frame );
+	}
+
+	/**
+	 * count a frame as processed, only those count for throughput
+	 */
+	public synchronized void frameDone(int frame) {
+		framesDone++;
+		openFrames.remove( frame );
+	}
+
+	/**
+	 * mark the run as finished, throughput will be calculated until this point
+	 */
+	public synchronized void finish() {
+		endNanos = System.nanoTime();
+	}
+
+	@Override
+	public synchronized int getFramesProcessed() {
+		return framesDone;
+	}
+
+	@Override
+	public synchronized double getFramesPerSecond() {
+		final long elapsed = ( endNanos < 0 ? System.nanoTime() : endNanos ) - startNanos;
+		return framesDone / ( elapsed / 1e9 );
+	}
+
+	@Override
+	public synchronized long getBytesSent() {
+		return totals[Stage.values().length];
+	}
+
+	@Override
+	public synchronized long getBytesReceived() {
+		return totals[Stage.values().length + 1];
+	}
+
+	@Override
+	public synchronized Map<String, Double> getMeanStageMillis() {
+		final Map<String, Double> means = new LinkedHashMap<>();
+		for (Stage stage : Stage.values())
+			means.put( stage.name(), nFrames == 0 ? 0 : totals[stage.ordinal()] / (double) nFrames / 1e6 );
+		return means;
+	}
+
+	public synchronized String frameSummary(int frame) {
+		final long[] f = getFrame( frame );
+		final StringBuilder sb = new StringBuilder( "YeastMate frame " + ( frame + 1 ) + ":" );
+		for (Stage stage : Stage.values())
+			sb.append( String.format( Locale.ROOT, " %s=%.1fms", stage.name().toLowerCase( Locale.ROOT ), f[stage.ordinal()] / 1e6 ) );
+		sb.append( String.format( Locale.ROOT, " sent=%dkB received=%dkB", f[Stage.values().length] / 1024, f[Stage.values().length + 1] / 1024 ) );
+		return sb.toString();
+	}
+
+	public synchronized String summary() {
+		final StringBuilder sb = new StringBuilder( String.format( Locale.ROOT, "YeastMate: %d frame(s), %.2f frames/s, sent %.1f MB, received %.1f MB; mean per frame:",
+				framesDone, getFramesPerSecond(), getBytesSent() / 1e6, getBytesReceived() / 1e6 ) );
+		getMeanStageMillis().forEach( (stage, ms) -> sb.append( String.format( Locale.ROOT, " %s=%.1fms", stage.toLowerCase( Locale.ROOT ), ms ) ) );
+		return sb.toString();
+	}
+
+	/**
+	 * export per-frame metrics to file, as JSON if the file name ends with .json, as CSV otherwise
+	 * (without kept frames there is a single row of means per frame instead)
+	 */
+	public synchronized void export(File file) throws IOException {
+		try (PrintWriter pw = new PrintWriter( file, "UTF-8" ))
+		{
+			if (file.getName().toLowerCase( Locale.ROOT ).endsWith( ".json" ))
+				pw.write( toJSON().toString( 2 ) );
+			else
+				writeCSV( pw );
+		}
+		catch (JSONException e) {
+			throw new IOException( e );
+		}
+	}
+
+	private void writeCSV(PrintWriter pw) {
+		pw.print( "frame" );
+		for (Stage stage : Stage.values())
+			pw.print( "," + stage.name().toLowerCase( Locale.ROOT ) + "_ns" );
+		pw.println( ",bytes_sent,bytes_received" );
+		if (frames == null)
+		{
+			pw.print( "mean" );
+			for (long v : totals)
+				pw.print( "," + ( nFrames == 0 ? 0 : v / nFrames ) );
+			pw.println();
+			return;
+		}
+		for (int i = 0; i < frames.size(); i++)
+		{
+			pw.print( i + 1 );
+			for (long v : frames.get( i ))
+				pw.print( "," + v );
+			pw.println();
+		}
+	}
+
+	private JSONObject toJSON() throws JSONException {
+		final JSONObject result = new JSONObject();
+		result.put( "frames_per_second", getFramesPerSecond() );
+		if (frames == null)
+		{
+			final long[] mean = new long[totals.length];
+			for (int i = 0; i < mean.length; i++)
+				mean[i] = nFrames == 0 ? 0 : totals[i] / nFrames;
+			result.put( "frames_processed", framesDone );
+			result.put( "mean", toJSON( mean ) );
+			return result;
+		}
+		final JSONArray framesJSON = new JSONArray();
+		for (int i = 0; i < frames.size(); i++)
+		{
+			final JSONObject frame = toJSON( frames.get( i ) );
+			frame.put( "frame", i + 1 );
+			framesJSON.put( frame );
+		}
+		result.put( "frames", framesJSON );
+		return result;
+	}
+
+	private static JSONObject toJSON(long[] f) throws JSONException {
+		final JSONObject frame = new JSONObject();
+		for (Stage stage : Stage.values())
+			frame.put( stage.name().toLowerCase( Locale.ROOT ) + "_ns", f[stage.ordinal()] );
+		frame.put( "bytes_sent", f[Stage.values().length] );
+		frame.put( "bytes_received", f[Stage.values().length + 1] );
+		return frame;
+	}
+
+	/**
+	 * register as MXBean named {@value #JMX_NAME},image=&lt;image&gt;,run=&lt;number&gt; until {@link #unregisterMXBean()}
+	 */
+	public void registerMXBean(String image) {
+		try
+		{
+			final ObjectName name = new ObjectName( JMX_NAME + ",image=" + ObjectName.quote( image ) + ",run=" + RUNS.incrementAndGet() );
+			ManagementFactory.getPlatformMBeanServer().registerMBean( this, name );
+			objectName = name;
+		}
+		catch (JMException e) {
+			e.printStackTrace();
+		}
+	}
+
+	public void unregisterMXBean() {
+		if (objectName == null)
+			return;
+		try
+		{
+			final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			if (server.isRegistered( objectName ))
+				server.unregisterMBean( objectName );
+		}
+		catch (JMException e) {
+			e.printStackTrace();
+		}
+		objectName = null;
+	}
+}
@@ -0,0 +1,22 @@
+package yeastmate;
+
+import java.util.Map;
+
+/**
+ * JMX view of the metrics of a running YeastMate detection (one per image)
+ */
+public interface DetectionMetricsMXBean {
+
+	int getFramesProcessed();
+
+	double getFramesPerSecond();
+
+	long getBytesSent();
+
+	long getBytesReceived();
+
+	/**
+	 * @return mean time per frame in milliseconds for every stage
+	 */
+	Map<String, Double> getMeanStageMillis();
+}
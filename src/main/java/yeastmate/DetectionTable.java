@@ -0,0 +1,231 @@
+package yeastmate;
+
+import java.util.Arrays;
+import java.util.Iterator;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * detections of one frame in primitive arrays, parsed once from the server JSON
+ *
+ * Every detection has an id (its label in the mask), a box (x1, y1, x2, y2), one or more class codes,
+ * scores and links to other detections. Class codes are stored as integers: 0 (single cell),
+ * 1 (mating), 2 (budding) for the main class and 11, 12, 21, 22 for the subobject classes "1.1" ... "2.2".
+ * Classes, scores and links of detection i are at [classStarts[i], classStarts[i+1]) etc.
+ */
+public class DetectionTable {
+
+	public static final DetectionTable EMPTY = new DetectionTable( 0, new int[0], new double[0], new int[1], new int[0], new int[1], new float[0], new int[1], new int[0] );
+
+	private final int size;
+	private final int[] ids;
+	private final double[] boxes;
+	private final int[] classStarts;
+	private final int[] classes;
+	private final int[] scoreStarts;
+	private final float[] scores;
+	private final int[] linkStarts;
+	private final int[] links;
+
+	DetectionTable(int size, int[] ids, double[] boxes, int[] classStarts, int[] classes, int[] scoreStarts, float[] scores, int[] linkStarts, int[] links) {
+		this.size = size;
+		this.ids = ids;
+		this.boxes = boxes;
+		this.classStarts = classStarts;
+		this.classes = classes;
+		this.scoreStarts = scoreStarts;
+		this.scores = scores;
+		this.linkStarts = linkStarts;
+		this.links = links;
+	}
+
+	/**
+	 * parse the "detections" object of a server response, detections keep the key order of the JSON object
+	 */
+	public static DetectionTable fromJSON(JSONObject detections) throws JSONException {
+		final int n = detections.length();
+		final Builder builder = new Builder( n );
+		final Iterator<?> keysIt = detections.keys();
+		while (keysIt.hasNext())
+		{
+			final String key = (String) keysIt.next();
+			final JSONObject detection = detections.getJSONObject( key );
+
+			final JSONArray box = detection.getJSONArray( "box" );
+			builder.add( Integer.parseInt( key ), box.getDouble( 0 ), box.getDouble( 1 ), box.getDouble( 2 ), box.getDouble( 3 ) );
+
+			final JSONArray classes = detection.getJSONArray( "class" );
+			for (int i = 0; i < classes.length(); i++)
+				builder.addClass( parseClassCode( classes.getString( i ) ) );
+
+			final JSONArray scores = detection.optJSONArray( "score" );
+			for (int i = 0; scores != null && i < scores.length(); i++)
+				builder.addScore( (float) scores.getDouble( i ) );
+
+			final JSONArray links = detection.optJSONArray( "links" );
+			for (int i = 0; links != null && i < links.length(); i++)
+				builder.addLink( links.getInt( i ) );
+		}
+		return builder.build();
+	}
+
+	/**
+	 * "0" -> 0, "1.2" -> 12
+	 */
+	public static int parseClassCode(String classCode) {
+		final int dot = classCode.indexOf( '.' );
+		if (dot < 0)
+			return Integer.parseInt( classCode );
+		return 10 * Integer.parseInt( classCode.substring( 0, dot ) ) + Integer.parseInt( classCode.substring( dot + 1 ) );
+	}
+
+	/**
+	 * 0 -> "0", 12 -> "1.2"
+	 */
+	public static String classCodeToString(int classCode) {
+		return classCode < 10 ? Integer.toString( classCode ) : ( classCode / 10 ) + "." + ( classCode % 10 );
+	}
+
+	/**
+	 * main class (0, 1 or 2) of a class code
+	 */
+	public static int mainClass(int classCode) {
+		return classCode < 10 ? classCode : classCode / 10;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int getId(int i) {
+		return ids[i];
+	}
+
+	/**
+	 * @param c 0-3 for x1, y1, x2, y2
+	 */
+	public double getBox(int i, int c) {
+		return boxes[4 * i + c];
+	}
+
+	public int getNumberOfClasses(int i) {
+		return classStarts[i + 1] - classStarts[i];
+	}
+
+	public int getClass(int i, int j) {
+		return classes[classStarts[i] + j];
+	}
+
+	public int getNumberOfScores(int i) {
+		return scoreStarts[i + 1] - scoreStarts[i];
+	}
+
+	public float getScore(int i, int j) {
+		return scores[scoreStarts[i] + j];
+	}
+
+	public int getNumberOfLinks(int i) {
+		return linkStarts[i + 1] - linkStarts[i];
+	}
+
+	public int getLink(int i, int j) {
+		return links[linkStarts[i] + j];
+	}
+
+	/**
+	 * scale all boxes by factor (in place), rounded and clipped to image size
+	 */
+	public void scaleBoxes(int factor, int width, int height) {
+		for (int k = 0; k < boxes.length; k++)
+			boxes[k] = Math.min( Math.round( boxes[k] * factor ), k % 2 == 0 ? width : height );
+	}
+
+	/**
+	 * move all boxes by (dx, dy) (in place), e.g. from a cropped region to the whole image
+	 */
+	public void translateBoxes(int dx, int dy) {
+		for (int k = 0; k < boxes.length; k++)
+			boxes[k] += k % 2 == 0 ? dx : dy;
+	}
+
+	/**
+	 * collects detections in arrays that grow as needed
+	 */
+	static class Builder {
+
+		private int size;
+		private int[] ids;
+		private double[] boxes;
+		private int[] classStarts;
+		private int[] classes;
+		private int nClasses;
+		private int[] scoreStarts;
+		private float[] scores;
+		private int nScores;
+		private int[] linkStarts;
+		private int[] links;
+		private int nLinks;
+
+		Builder(int expectedSize) {
+			final int n = Math.max( expectedSize, 1 );
+			ids = new int[n];
+			boxes = new double[4 * n];
+			classStarts = new int[n + 1];
+			classes = new int[n];
+			scoreStarts = new int[n + 1];
+			scores = new float[n];
+			linkStarts = new int[n + 1];
+			links = new int[n];
+		}
+
+		/**
+		 * start a new detection, classes, scores and links added afterwards belong to it
+		 */
+		void add(int id, double x1, double y1, double x2, double y2) {
+			if (size == ids.length)
+			{
+				ids = Arrays.copyOf( ids, 2 * size );
+				boxes = Arrays.copyOf( boxes, 8 * size );
+				classStarts = Arrays.copyOf( classStarts, 2 * size + 1 );
+				scoreStarts = Arrays.copyOf( scoreStarts, 2 * size + 1 );
+				linkStarts = Arrays.copyOf( linkStarts, 2 * size + 1 );
+			}
+			ids[size] = id;
+			boxes[4 * size] = x1;
+			boxes[4 * size + 1] = y1;
+			boxes[4 * size + 2] = x2;
+			boxes[4 * size + 3] = y2;
+			size++;
+			classStarts[size] = nClasses;
+			scoreStarts[size] = nScores;
+			linkStarts[size] = nLinks;
+		}
+
+		void addClass(int classCode) {
+			if (nClasses == classes.length)
+				classes = Arrays.copyOf( classes, 2 * nClasses );
+			classes[nClasses++] = classCode;
+			classStarts[size] = nClasses;
+		}
+
+		void addScore(float score) {
+			if (nScores == scores.length)
+				scores = Arrays.copyOf( scores, 2 * nScores );
+			scores[nScores++] = score;
+			scoreStarts[size] = nScores;
+		}
+
+		void addLink(int link) {
+			if (nLinks == links.length)
+				links = Arrays.copyOf( links, 2 * nLinks );
+			links[nLinks++] = link;
+			linkStarts[size] = nLinks;
+		}
+
+		DetectionTable build() {
+			return new DetectionTable( size, ids, boxes, classStarts, classes, scoreStarts, scores, linkStarts, links );
+		}
+	}
+}
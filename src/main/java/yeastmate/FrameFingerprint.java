@@ -0,0 +1,111 @@
+package yeastmate;
+
+import java.util.Arrays;
+
+import ij.ImagePlus;
+
+/**
+ * cheap fingerprint of a normalized frame, to recognize repeated or (nearly) unchanged frames before detection:
+ * a 64-bit hash of the pixels and a signature of SIZE x SIZE block means of the normalized values
+ */
+public class FrameFingerprint {
+
+	// blocks of the signature per dimension
+	static final int SIZE = 16;
+
+	private final int width;
+	private final int height;
+	private final long hash;
+	private final float[] signature;
+
+	private FrameFingerprint(int width, int height, long hash, float[] signature) {
+		this.width = width;
+		this.height = height;
+		this.hash = hash;
+		this.signature = signature;
+	}
+
+	/**
+	 * @param normalizedIP image from {@link YeastMate#getNormalizedImagePlus}, 32-bit or 16-bit fixed point
+	 */
+	public static FrameFingerprint of(ImagePlus normalizedIP) {
+		final int width = normalizedIP.getWidth();
+		final int height = normalizedIP.getHeight();
+		final Object pixels = normalizedIP.getProcessor().getPixels();
+
+		// fixed point: value = pixel * scale + offset
+		double scale = 1.0;
+		double offset = 0.0;
+		if (pixels instanceof short[])
+		{
+			scale = (Double) normalizedIP.getProperty( YeastMate.FIXED_POINT_SCALE );
+			offset = (Double) normalizedIP.getProperty( YeastMate.FIXED_POINT_OFFSET );
+		}
+
+		// block of every column, so the pixel loop has no divisions
+		final int[] blockX = new int[width];
+		for (int x = 0; x < width; x++)
+			blockX[x] = (int) ( (long) x * SIZE / width );
+
+		// FNV-1a over the pixel bits
+		long hash = 0xcbf29ce484222325L;
+		final double[] sums = new double[SIZE * SIZE];
+		final int[] counts = new int[SIZE * SIZE];
+		for (int y = 0; y < height; y++)
+		{
+			final int row = (int) ( (long) y * SIZE / height ) * SIZE;
+			final int offsetY = y * width;
+			if (pixels instanceof short[])
+			{
+				final short[] src = (short[]) pixels;
+				for (int x = 0; x < width; x++)
+				{
+					final int v = src[offsetY + x] & 0xffff;
+					hash = ( hash ^ v ) * 0x100000001b3L;
+					sums[row + blockX[x]] += v * scale + offset;
+					counts[row + blockX[x]]++;
+				}
+			}
+			else
+			{
+				final float[] src = (float[]) pixels;
+				for (int x = 0; x < width; x++)
+				{
+					final float v = src[offsetY + x];
+					hash = ( hash ^ Float.floatToIntBits( v ) ) * 0x100000001b3L;
+					sums[row + blockX[x]] += v;
+					counts[row + blockX[x]]++;
+				}
+			}
+		}
+		hash = ( hash ^ Double.doubleToLongBits( scale ) ) * 0x100000001b3L;
+		hash = ( hash ^ Double.doubleToLongBits( offset ) ) * 0x100000001b3L;
+
+		final float[] signature = new float[SIZE * SIZE];
+		for (int i = 0; i < signature.length; i++)
+			signature[i] = counts[i] > 0 ? (float) ( sums[i] / counts[i] ) : 0;
+		return new FrameFingerprint( width, height, hash, signature );
+	}
+
+	/**
+	 * @param tolerance maximum mean absolute difference of the signatures (in normalized intensity), 0: identical frames only
+	 * @return whether this frame is a duplicate of other (false if other is null)
+	 */
+	public boolean matches(FrameFingerprint other, double tolerance) {
+		if (other == null || width != other.width || height != other.height)
+			return false;
+		if (tolerance <= 0)
+			return hash == other.hash && Arrays.equals( signature, other.signature );
+		return getDifference( other ) <= tolerance;
+	}
+
+	/**
+	 * @return mean absolute difference of the signatures
+	 */
+	public double getDifference(FrameFingerprint other) {
+		double sum = 0;
+		for (int i = 0; i < signature.length; i++)
+			sum += Math.abs( signature[i] - other.signature[i] );
+		return sum / signature.length;
+	}
+}
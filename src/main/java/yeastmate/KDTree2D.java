@@ -0,0 +1,105 @@
+package yeastmate;
+
+import java.util.function.IntConsumer;
+
+/**
+ * static 2D k-d tree over labeled points for fixed-radius neighbor queries
+ *
+ * The tree is implicit: points are reordered so that the median of every range [lo, hi)
+ * splits it along x (even depth) or y (odd depth), no node objects are allocated.
+ */
+public class KDTree2D {
+
+	private final int[] ids;
+	private final double[] xs;
+	private final double[] ys;
+
+	/**
+	 * @param ids ids of points (returned by queries)
+	 * @param xs  x coordinates
+	 * @param ys  y coordinates
+	 */
+	public KDTree2D(int[] ids, double[] xs, double[] ys) {
+		this.ids = ids.clone();
+		this.xs = xs.clone();
+		this.ys = ys.clone();
+		build( 0, this.ids.length, 0 );
+	}
+
+	public int size() {
+		return ids.length;
+	}
+
+	/**
+	 * call visitor with the id of every point within radius of (x, y)
+	 */
+	public void radiusSearch(double x, double y, double radius, IntConsumer visitor) {
+		search( 0, ids.length, 0, x, y, radius, radius * radius, visitor );
+	}
+
+	private void build(int lo, int hi, int depth) {
+		if (hi - lo <= 1)
+			return;
+		final int mid = ( lo + hi ) >>> 1;
+		select( lo, hi - 1, mid, depth % 2 == 0 ? xs : ys );
+		build( lo, mid, depth + 1 );
+		build( mid + 1, hi, depth + 1 );
+	}
+
+	private void search(int lo, int hi, int depth, double x, double y, double radius, double radiusSquared, IntConsumer visitor) {
+		if (hi <= lo)
+			return;
+		final int mid = ( lo + hi ) >>> 1;
+		final double dx = xs[mid] - x;
+		final double dy = ys[mid] - y;
+		if (dx * dx + dy * dy <= radiusSquared)
+			visitor.accept( ids[mid] );
+
+		// distance of query to splitting line decides which halves can contain points within radius
+		final double d = depth % 2 == 0 ? dx : dy;
+		if (d >= -radius)
+			search( lo, mid, depth + 1, x, y, radius, radiusSquared, visitor );
+		if (d <= radius)
+			search( mid + 1, hi, depth + 1, x, y, radius, radiusSquared, visitor );
+	}
+
+	/**
+	 * quickselect: reorder [left, right] so that position k holds the k-th smallest key,
+	 * smaller or equal keys before it and larger or equal keys after it
+	 */
+	private void select(int left, int right, int k, double[] keys) {
+		while (right > left)
+		{
+			final double pivot = keys[( left + right ) >>> 1];
+			int i = left;
+			int j = right;
+			while (i <= j)
+			{
+				while (keys[i] < pivot)
+					i++;
+				while (keys[j] > pivot)
+					j--;
+				if (i <= j)
+					swap( i++, j-- );
+			}
+			if (k <= j)
+				right = j;
+			else if (k >= i)
+				left = i;
+			else
+				return;
+		}
+	}
+
+	private void swap(int i, int j) {
+		final int id = ids[i];
+		ids[i] = ids[j];
+		ids[j] = id;
+		final double x = xs[i];
+		xs[i] = xs[j];
+		xs[j] = x;
+		final double y = ys[i];
+		ys[i] = ys[j];
+		ys[j] = y;
+	}
+}
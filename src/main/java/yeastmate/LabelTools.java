@@ -1,13 +1,16 @@
 package yeastmate;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import ij.IJ;
 import ij.ImagePlus;
@@ -62,6 +65,94 @@ public class LabelTools {
 		return matches;
 	}
 	
+	/**
+	 * same as {@link #matchLabelsMinimizeDistance}, but for sparse candidate pairs (e.g. from a distance gate):
+	 * labels that are not connected by candidate pairs can not influence each others assignment,
+	 * so every connected component of the candidate graph is solved on its own (small) dense cost matrix
+	 */
+	public static Map<Integer, Integer> matchLabelsMinimizeDistanceSparse(Map<Pair<Integer, Integer>, Double> distances, double maxDistance) {
+
+		final Map<Integer, Integer> matches = new HashMap<>();
+		for (Map<Pair<Integer, Integer>, Double> component : getConnectedComponents(distances))
+		{
+			// trivial component: a single candidate pair
+			if (component.size() == 1)
+				component.forEach((p, d) -> {
+					if (d < maxDistance)
+						matches.put(p.getA(), p.getB());
+				});
+			else
+				matches.putAll(matchLabelsMinimizeDistance(component, maxDistance));
+		}
+		return matches;
+	}
+
+	/**
+	 * same as {@link #matchLabelsMaximizeIoU}: pairs below minIoU have weight 0 there, so they can not influence the assignment
+	 * and every connected component of the pairs with at least minIoU is solved on its own
+	 */
+	public static Map<Integer, Integer> matchLabelsMaximizeIoUSparse(Map<Pair<Integer, Integer>, Double> ious, double minIoU) {
+
+		final Map<Pair<Integer, Integer>, Double> candidates = new HashMap<>();
+		ious.forEach((p, iou) -> {
+			if (iou >= minIoU)
+				candidates.put(p, iou);
+		});
+
+		final Map<Integer, Integer> matches = new HashMap<>();
+		for (Map<Pair<Integer, Integer>, Double> component : getConnectedComponents(candidates))
+		{
+			if (component.size() == 1)
+				component.forEach((p, iou) -> {
+					if (iou > minIoU)
+						matches.put(p.getA(), p.getB());
+				});
+			else
+				matches.putAll(matchLabelsMaximizeIoU(component, minIoU));
+		}
+		return matches;
+	}
+
+	/**
+	 * split weighted pairs (label1, label2) into connected components of the bipartite graph they form
+	 */
+	private static Collection<Map<Pair<Integer, Integer>, Double>> getConnectedComponents(Map<Pair<Integer, Integer>, Double> pairs)
+	{
+		// union-find over labels of both sides, labels of side 2 are stored as -(label + 1)
+		final Map<Integer, Integer> parent = new HashMap<>();
+		for (Pair<Integer, Integer> p : pairs.keySet())
+			union(parent, p.getA(), -(p.getB() + 1));
+
+		final Map<Integer, Map<Pair<Integer, Integer>, Double>> components = new HashMap<>();
+		pairs.forEach((p, w) -> components.computeIfAbsent(find(parent, p.getA()), k -> new HashMap<>()).put(p, w));
+		return components.values();
+	}
+
+	private static int find(Map<Integer, Integer> parent, int x)
+	{
+		int root = x;
+		while (parent.containsKey(root) && parent.get(root) != root)
+			root = parent.get(root);
+		// path compression
+		while (x != root)
+		{
+			final int next = parent.get(x);
+			parent.put(x, root);
+			x = next;
+		}
+		return root;
+	}
+
+	private static void union(Map<Integer, Integer> parent, int a, int b)
+	{
+		parent.putIfAbsent(a, a);
+		parent.putIfAbsent(b, b);
+		final int rootA = find(parent, a);
+		final int rootB = find(parent, b);
+		if (rootA != rootB)
+			parent.put(rootA, rootB);
+	}
+
 	public static Map<Integer, Integer> matchLabelsMaximizeIoU(Map<Pair<Integer, Integer>, Double> ious, double minIoU) {
 
 		final List<Integer> labels1 = new ArrayList<>(ious.keySet().stream().map(p -> p.getA()).collect(Collectors.toSet()));
@@ -107,6 +198,41 @@ public class LabelTools {
 		});
 	}
 
+	/**
+	 * dense lookup table for unsigned 16-bit labels: labels in labelMapping are mapped,
+	 * labels not in keepLabels (if not null) are set to 0, all other labels stay the same
+	 */
+	public static short[] getLabelLUT(Map<Integer, Integer> labelMapping, Set<Integer> keepLabels)
+	{
+		final short[] lut = new short[1 << 16];
+		if (keepLabels == null)
+			for (int l = 1; l < lut.length; l++)
+				lut[l] = (short) l;
+		else
+			for (Integer l : keepLabels)
+				lut[l] = (short) (int) l;
+
+		labelMapping.forEach((from, to) -> {
+			if (keepLabels == null || keepLabels.contains(from))
+				lut[from] = (short) (int) to;
+		});
+		return lut;
+	}
+
+	/**
+	 * target[i] = lut[source[i]] for all pixels, in parallel blocks (source and target may be the same array)
+	 */
+	public static void applyLabelLUT(short[] source, short[] lut, short[] target)
+	{
+		final int blockSize = 1 << 16;
+		final int nBlocks = (source.length + blockSize - 1) / blockSize;
+		IntStream.range(0, nBlocks).parallel().forEach(b -> {
+			final int end = Math.min(source.length, (b + 1) * blockSize);
+			for (int i = b * blockSize; i < end; i++)
+				target[i] = lut[source[i] & 0xffff];
+		});
+	}
+
 	public static <T extends IntegerType<T>> void relabelFrom(RandomAccessibleInterval<T> img, int startValue)
 	{
 
@@ -177,8 +303,6 @@ public class LabelTools {
 		Map<Integer, double[]> centersOfMass2 = getCentersOfMass(img2);
 		Map<Pair<Integer, Integer>, Double> distances = new HashMap<>();
 		
-		System.out.println("(" + centersOfMass1.size() + "," + centersOfMass2.size() + ")");
-		
 		for (Entry<Integer, double[]> com1 : centersOfMass1.entrySet())
 		{
 			for (Entry<Integer, double[]> com2 : centersOfMass2.entrySet())
@@ -191,6 +315,40 @@ public class LabelTools {
 		return distances;
 	}
 	
+	/**
+	 * distances of all pairs of 2D points closer than maxDistance, candidates are found with a k-d tree
+	 * instead of looking at all pairs
+	 * 
+	 * @param points1 label -> (x, y)
+	 * @param points2 label -> (x, y)
+	 * @return (label1, label2) -> distance, for pairs within maxDistance only
+	 */
+	public static Map<Pair<Integer, Integer>, Double> getDistances(Map<Integer, double[]> points1, Map<Integer, double[]> points2, double maxDistance)
+	{
+		final int n = points2.size();
+		final int[] ids = new int[n];
+		final double[] xs = new double[n];
+		final double[] ys = new double[n];
+		int i = 0;
+		for (Entry<Integer, double[]> p : points2.entrySet())
+		{
+			ids[i] = p.getKey();
+			xs[i] = p.getValue()[0];
+			ys[i] = p.getValue()[1];
+			i++;
+		}
+		final KDTree2D tree = new KDTree2D(ids, xs, ys);
+
+		final Map<Pair<Integer, Integer>, Double> distances = new HashMap<>();
+		for (Entry<Integer, double[]> p1 : points1.entrySet())
+		{
+			final double[] c = p1.getValue();
+			tree.radiusSearch(c[0], c[1], maxDistance, label2 ->
+				distances.put(new ValuePair<>(p1.getKey(), label2), getEuclideanDistance(c, points2.get(label2))));
+		}
+		return distances;
+	}
+
 	public static double getEuclideanDistance(double[] v1, double[] v2)
 	{
 		if (v1.length != v2.length)
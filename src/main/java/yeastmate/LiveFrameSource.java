@@ -0,0 +1,117 @@
+package yeastmate;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.function.BooleanSupplier;
+
+import ij.IJ;
+import ij.ImagePlus;
+
+/**
+ * frames arriving during an acquisition, either as a growing stack or as new files in a directory
+ * 
+ * NB: only the position in the stack or the name of the last file is kept, so memory use does not grow with the movie
+ */
+public class LiveFrameSource {
+
+	private static final long POLL_MS = 500;
+
+	// files are only read once they have not been modified for this long (i.e. writing has finished)
+	private static final long MIN_FILE_AGE_MS = 1000;
+
+	private static final String[] IMAGE_EXTENSIONS = { ".tif", ".tiff", ".png", ".jpg", ".jpeg" };
+
+	private final ImagePlus stack;
+	private final File directory;
+
+	// number of frames returned so far
+	private int nFrames = 0;
+	private String lastFileName = null;
+
+	private LiveFrameSource(ImagePlus stack, File directory) {
+		this.stack = stack;
+		this.directory = directory;
+	}
+
+	/**
+	 * watch a stack that grows in time (frames of a hyperstack or slices of a simple stack)
+	 */
+	public static LiveFrameSource watchStack(ImagePlus stack) {
+		return new LiveFrameSource( stack, null );
+	}
+
+	/**
+	 * watch a directory for new single-frame image files, files are processed in order of their names
+	 */
+	public static LiveFrameSource watchDirectory(File directory) {
+		return new LiveFrameSource( null, directory );
+	}
+
+	/**
+	 * wait for the next frame
+	 * 
+	 * @param idleTimeoutMs give up if no new frame arrives for this long
+	 * @param canceled      checked while waiting
+	 * @return image positioned at the new frame or null if timed out or canceled
+	 */
+	public ImagePlus next(long idleTimeoutMs, BooleanSupplier canceled) throws InterruptedException {
+		final long start = System.currentTimeMillis();
+		while (!canceled.getAsBoolean() && System.currentTimeMillis() - start < idleTimeoutMs)
+		{
+			final ImagePlus frame = stack != null ? nextStackFrame() : nextFile();
+			if (frame != null)
+			{
+				nFrames++;
+				return frame;
+			}
+			Thread.sleep( POLL_MS );
+		}
+		return null;
+	}
+
+	/**
+	 * @return index of the frame last returned by {@link #next(long, BooleanSupplier)}
+	 */
+	public int getFrameIndex() {
+		return nFrames - 1;
+	}
+
+	private ImagePlus nextStackFrame() {
+		final boolean timeIsFrames = stack.getNFrames() > 1;
+		final int available = timeIsFrames ? stack.getNFrames() : stack.getStackSize();
+		if (available <= nFrames)
+			return null;
+		if (timeIsFrames)
+			stack.setT( nFrames + 1 );
+		else
+			stack.setSlice( nFrames + 1 );
+		return stack;
+	}
+
+	private ImagePlus nextFile() {
+		final long now = System.currentTimeMillis();
+		final File[] candidates = directory.listFiles( f -> f.isFile() && isImageFile( f.getName() )
+				&& ( lastFileName == null || f.getName().compareTo( lastFileName ) > 0 ) );
+		if (candidates == null || candidates.length == 0)
+			return null;
+
+		Arrays.sort( candidates );
+		final File file = candidates[0];
+		if (now - file.lastModified() < MIN_FILE_AGE_MS)
+			return null;
+
+		lastFileName = file.getName();
+		final ImagePlus frame = IJ.openImage( file.getAbsolutePath() );
+		// unreadable file -> skip it and try next one
+		return frame != null ? frame : nextFile();
+	}
+
+	private static boolean isImageFile(String name) {
+		final String lower = name.toLowerCase( Locale.ROOT );
+		for (String extension : IMAGE_EXTENSIONS)
+			if (lower.endsWith( extension ))
+				return true;
+		return false;
+	}
+}
@@ -0,0 +1,105 @@
+package yeastmate;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.scijava.app.StatusService;
+import org.scijava.command.Command;
+import org.scijava.log.LogService;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.gui.Roi;
+import ij.process.ShortProcessor;
+import net.imagej.lut.LUTService;
+
+/**
+ * re-create ROIs and segmentation mask from a result file saved by {@link YeastMate},
+ * without running detection again
+ */
+@Plugin(type = Command.class, headless = true,
+	menuPath = "Plugins>YeastMate Tools>Load Results")
+public class LoadYeastMateResults implements Command {
+
+	@Parameter
+	private LogService log;
+
+	@Parameter
+	private StatusService statusService;
+
+	@Parameter
+	private LUTService lutService;
+
+	@Parameter(label = "Result file (" + ResultFile.EXTENSION + ")", style = "open")
+	private File resultFile;
+
+	@Parameter(label = "Add single cell ROIs to ROI Manager?")
+	private Boolean addSingleRois = false;
+
+	@Parameter(label = "Add mating ROIs to ROI Manager?")
+	private Boolean addMatingRois = true;
+
+	@Parameter(label = "Add budding ROIs to ROI Manager?")
+	private Boolean addBuddingRois = false;
+
+	@Parameter(label = "Show segmentation mask?")
+	private Boolean showSegmentation = true;
+
+	@Parameter(label = "Only include cells from selected classes in mask?")
+	private Boolean onlySelectedClassesInMask = false;
+
+	@Override
+	public void run() {
+
+		// all ROIs are added to the ROI Manager in one batch at the end
+		try (ResultFile.Reader reader = new ResultFile.Reader(resultFile); RoiOutput rois = RoiOutput.toRoiManager())
+		{
+			final int nFrames = reader.getNumberOfFrames();
+			if (nFrames == 0)
+			{
+				log.warn("YeastMate: no results in " + resultFile);
+				return;
+			}
+
+			ImageStack maskStack = null;
+			for (int i = 0; i < nFrames; i++)
+			{
+				statusService.showProgress(i, nFrames);
+				final ResultFile.Frame frame = reader.getFrame(i);
+				final ImagePlus mask = frame.getMask();
+
+				final Set<Integer> cellsOfSelectedClasses = new HashSet<>();
+				for (Roi roi : YeastMate.createRois(frame.detections, frame.labelRemap, mask, addSingleRois, addMatingRois, addBuddingRois, cellsOfSelectedClasses))
+				{
+					frame.position.apply(roi);
+					rois.add(roi);
+				}
+
+				if (showSegmentation)
+				{
+					if (maskStack == null)
+						maskStack = new ImageStack(frame.width, frame.height);
+					ShortProcessor slice = new ShortProcessor(frame.width, frame.height);
+					YeastMate.fillMaskSlice(mask, frame.labelRemap, onlySelectedClassesInMask ? cellsOfSelectedClasses : null, (short[]) slice.getPixels());
+					maskStack.addSlice(slice);
+				}
+			}
+			statusService.showProgress(nFrames, nFrames);
+
+			if (maskStack != null)
+			{
+				ImagePlus maskIP = new ImagePlus("segmentation from " + resultFile.getName(), maskStack);
+				maskIP.resetDisplayRange();
+				YeastMate.trySetLUT(lutService, maskIP, false);
+				maskIP.show();
+			}
+		}
+		catch (IOException e) {
+			log.error("YeastMate: could not load results from " + resultFile, e);
+		}
+	}
+}
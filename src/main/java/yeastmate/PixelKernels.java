@@ -0,0 +1,123 @@
+package yeastmate;
+
+/**
+ * per-pixel loops of normalization on primitive arrays
+ *
+ * The loops are kept free of calls and branches (apart from histogram increments), so that the JIT can unroll and
+ * vectorize them (SuperWord). Quantiles of 8- and 16-bit images are read from a histogram instead of
+ * selecting them from a copy of all pixels, with the same estimate as commons-math's default Percentile.
+ */
+public class PixelKernels {
+
+	/**
+	 * copy 8-bit (unsigned), 16-bit (unsigned) or 32-bit float pixels of an ImageJ plane to doubles
+	 */
+	public static void toDoubles(Object pixels, double[] target, int n) {
+		if (pixels instanceof short[])
+		{
+			final short[] src = (short[]) pixels;
+			for (int i = 0; i < n; i++)
+				target[i] = src[i] & 0xffff;
+		}
+		else if (pixels instanceof byte[])
+		{
+			final byte[] src = (byte[]) pixels;
+			for (int i = 0; i < n; i++)
+				target[i] = src[i] & 0xff;
+		}
+		else
+		{
+			final float[] src = (float[]) pixels;
+			for (int i = 0; i < n; i++)
+				target[i] = src[i];
+		}
+	}
+
+	/**
+	 * @return {min, max} of the first n values
+	 */
+	public static double[] minMax(double[] values, int n) {
+		double min = Double.MAX_VALUE;
+		double max = -Double.MAX_VALUE;
+		for (int i = 0; i < n; i++)
+		{
+			min = Math.min( min, values[i] );
+			max = Math.max( max, values[i] );
+		}
+		return new double[] { min, max };
+	}
+
+	/**
+	 * @return histogram of 8-bit or 16-bit pixels (256 or 65536 bins), null for other pixel types
+	 */
+	public static int[] histogram(Object pixels, int n) {
+		if (pixels instanceof short[])
+		{
+			final short[] src = (short[]) pixels;
+			final int[] histogram = new int[65536];
+			for (int i = 0; i < n; i++)
+				histogram[src[i] & 0xffff]++;
+			return histogram;
+		}
+		if (pixels instanceof byte[])
+		{
+			final byte[] src = (byte[]) pixels;
+			final int[] histogram = new int[256];
+			for (int i = 0; i < n; i++)
+				histogram[src[i] & 0xff]++;
+			return histogram;
+		}
+		return null;
+	}
+
+	/**
+	 * percentile of the values counted in histogram (bin index = value), estimated like
+	 * {@link org.apache.commons.math3.stat.descriptive.rank.Percentile} (legacy estimation) would on the values
+	 *
+	 * @param n total count of histogram
+	 * @param p percentile in (0, 100]
+	 */
+	public static double percentile(int[] histogram, long n, double p) {
+		if (n == 1)
+			return kth( histogram, 0 );
+		final double pos = p / 100 * ( n + 1 );
+		if (pos < 1)
+			return kth( histogram, 0 );
+		if (pos >= n)
+			return kth( histogram, n - 1 );
+		final long k = (long) Math.floor( pos );
+		final double lower = kth( histogram, k - 1 );
+		final double upper = kth( histogram, k );
+		return lower + ( pos - k ) * ( upper - lower );
+	}
+
+	/**
+	 * @return k-th smallest (0-based) counted value
+	 */
+	private static int kth(int[] histogram, long k) {
+		long count = 0;
+		for (int v = 0; v < histogram.length; v++)
+		{
+			count += histogram[v];
+			if (count > k)
+				return v;
+		}
+		return histogram.length - 1;
+	}
+
+	/**
+	 * target = (values - min) / range
+	 */
+	public static void normalize(double[] values, float[] target, int n, double min, double range) {
+		for (int i = 0; i < n; i++)
+			target[i] = (float) ( ( values[i] - min ) / range );
+	}
+
+	/**
+	 * target = round(((values - min) / range - offset) / scale), as unsigned 16-bit
+	 */
+	public static void normalizeFixedPoint(double[] values, short[] target, int n, double min, double range, double offset, double scale) {
+		for (int i = 0; i < n; i++)
+			target[i] = (short) Math.round( ( ( values[i] - min ) / range - offset ) / scale );
+	}
+}
@@ -0,0 +1,337 @@
+package yeastmate;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.util.EntityUtils;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.scijava.log.LogService;
+
+/**
+ * sends /predict requests to detection server(s) with timeouts, bounded retries and optional hedging
+ */
+public class RemoteDetectionClient implements AutoCloseable {
+
+	private static final int CONNECT_TIMEOUT_MS = 5000;
+
+	// backoff before retry n is BACKOFF_MS * 2^n, capped at MAX_BACKOFF_MS
+	private static final long BACKOFF_MS = 200;
+	private static final long MAX_BACKOFF_MS = 5000;
+
+	// number of recent request latencies used for the hedging percentile, and minimum to start hedging
+	private static final int LATENCY_WINDOW = 100;
+	private static final int MIN_LATENCIES_FOR_HEDGING = 10;
+
+	// aborts requests that are not done after the timeout
+	private static final ScheduledExecutorService DEADLINES = Executors.newSingleThreadScheduledExecutor( r -> {
+		Thread t = new Thread( r, "YeastMate request deadlines" );
+		t.setDaemon( true );
+		return t;
+	});
+
+	private final DetectionBackends backends;
+	private final AdaptiveConcurrencyLimit concurrencyLimit;
+	private final LogService log;
+	private final int timeoutMs;
+	private final int maxRetries;
+	private final double hedgingPercentile;
+	private final CloseableHttpClient client;
+	private final ExecutorService hedgeExecutor;
+
+	// requests currently in flight, so they can be aborted on cancel
+	private final Set<HttpPost> inFlight = ConcurrentHashMap.newKeySet();
+
+	// ring buffer of recent successful request latencies in nanoseconds
+	private final long[] latencies = new long[LATENCY_WINDOW];
+	private int nLatencies = 0;
+
+	/**
+	 * @param backends          detection server(s) to send requests to
+	 * @param concurrencyLimit  limit of frames in flight (a frame's retries and hedged copies count as one)
+	 * @param log               log for failed requests
+	 * @param timeoutMs         maximum time per request (including upload and download), it is aborted after that
+	 * @param maxRetries        number of retries of failed requests
+	 * @param hedgingPercentile if > 0, send a second copy of requests that take longer than this percentile
+	 *                          of recent request latencies and use whichever returns first
+	 */
+	public RemoteDetectionClient(DetectionBackends backends, AdaptiveConcurrencyLimit concurrencyLimit, LogService log, int timeoutMs, int maxRetries, double hedgingPercentile) {
+		this.backends = backends;
+		this.concurrencyLimit = concurrencyLimit;
+		this.log = log;
+		this.timeoutMs = timeoutMs;
+		this.maxRetries = maxRetries;
+		this.hedgingPercentile = hedgingPercentile;
+
+		// twice the requests in flight, for hedged copies
+		final int maxConnections = concurrencyLimit.getMaxLimit() * 2;
+		client = HttpClientBuilder.create()
+				.setDefaultRequestConfig( RequestConfig.custom()
+						.setConnectTimeout( CONNECT_TIMEOUT_MS )
+						.setConnectionRequestTimeout( timeoutMs )
+						.setSocketTimeout( timeoutMs ).build() )
+				.setMaxConnPerRoute( maxConnections )
+				.setMaxConnTotal( maxConnections )
+				// we do our own retries
+				.disableAutomaticRetries()
+				.build();
+		hedgeExecutor = hedgingPercentile > 0 ? Executors.newCachedThreadPool() : null;
+	}
+
+	/**
+	 * POST entity to /predict of one of the servers
+	 * 
+	 * @param entity  multipart request body, must be repeatable
+	 * @param metrics metrics to add request time and bytes to
+	 * @param frame   frame index for metrics
+	 * @return parsed JSON response or null if all attempts failed
+	 */
+	public JSONObject predict(HttpEntity entity, DetectionMetrics metrics, int frame) {
+		try {
+			concurrencyLimit.acquire();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		}
+		try {
+			return predictWithRetries( entity, metrics, frame );
+		}
+		finally {
+			concurrencyLimit.release();
+		}
+	}
+
+	private JSONObject predictWithRetries(HttpEntity entity, DetectionMetrics metrics, int frame) {
+		for (int attempt = 0; attempt <= maxRetries; attempt++)
+		{
+			if (attempt > 0)
+			{
+				try {
+					Thread.sleep( Math.min( BACKOFF_MS << ( attempt - 1 ), MAX_BACKOFF_MS ) );
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return null;
+				}
+			}
+
+			final JSONObject result = hedgeExecutor == null
+					? predictSingle( entity, metrics, frame )
+					: predictHedged( entity, metrics, frame );
+			if (result != null)
+				return result;
+			if (Thread.currentThread().isInterrupted())
+				return null;
+		}
+		return null;
+	}
+
+	private JSONObject predictSingle(HttpEntity entity, DetectionMetrics metrics, int frame) {
+		return dispatch( entity, metrics, frame, new AtomicReference<>() );
+	}
+
+	private JSONObject predictHedged(HttpEntity entity, DetectionMetrics metrics, int frame) {
+		final CompletionService<JSONObject> completion = new ExecutorCompletionService<>( hedgeExecutor );
+		final AtomicReference<HttpPost> primaryRequest = new AtomicReference<>();
+		final AtomicReference<HttpPost> hedgeRequest = new AtomicReference<>();
+		final Future<JSONObject> primary = completion.submit( () -> dispatch( entity, metrics, frame, primaryRequest ) );
+		Future<JSONObject> hedge = null;
+
+		try
+		{
+			final long hedgeDelay = getLatencyPercentile( hedgingPercentile );
+			if (hedgeDelay < 0)
+				return getResult( primary );
+			try {
+				return primary.get( hedgeDelay, TimeUnit.NANOSECONDS );
+			}
+			catch (TimeoutException e) {
+				// primary is slow -> re-issue (dispatch will prefer another, less loaded server)
+				hedge = completion.submit( () -> dispatch( entity, metrics, frame, hedgeRequest ) );
+			}
+			catch (ExecutionException e) {
+				log.warn( "YeastMate: request failed", e.getCause() );
+				return null;
+			}
+
+			// first non-null result of primary and hedge wins, a failed copy counts like a null result
+			JSONObject result = null;
+			for (int i = 0; i < 2 && result == null; i++)
+				result = getResult( completion.take() );
+			return result;
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		}
+		finally
+		{
+			// abort whichever request is still running
+			abort( primaryRequest.get() );
+			abort( hedgeRequest.get() );
+			primary.cancel( true );
+			if (hedge != null)
+				hedge.cancel( true );
+		}
+	}
+
+	/**
+	 * @return result of a finished request or null if it failed
+	 */
+	private JSONObject getResult(Future<JSONObject> future) throws InterruptedException {
+		try {
+			return future.get();
+		}
+		catch (ExecutionException e) {
+			log.warn( "YeastMate: request failed", e.getCause() );
+			return null;
+		}
+	}
+
+	private JSONObject dispatch(HttpEntity entity, DetectionMetrics metrics, int frame, AtomicReference<HttpPost> request) {
+		final AtomicReference<DetectionBackends.Outcome> outcome = new AtomicReference<>();
+		return backends.dispatch( address -> predictOnce( address, entity, metrics, frame, request, outcome ), outcome::get );
+	}
+
+	/**
+	 * @param requestRef set to the request, so it can be aborted
+	 * @param outcome    set to how the request ended
+	 */
+	private JSONObject predictOnce(String address, HttpEntity entity, DetectionMetrics metrics, int frame, AtomicReference<HttpPost> requestRef, AtomicReference<DetectionBackends.Outcome> outcome) {
+		final HttpPost request;
+		try {
+			request = new HttpPost( "http://" + address + "/predict" );
+		}
+		catch (IllegalArgumentException e) {
+			outcome.set( DetectionBackends.Outcome.CONNECTION_FAILED );
+			return null;
+		}
+		request.setEntity( entity );
+		requestRef.set( request );
+		inFlight.add( request );
+
+		// the socket timeout only covers waiting for the next bytes, a server that trickles data would never time out
+		final AtomicBoolean timedOut = new AtomicBoolean();
+		final ScheduledFuture<?> deadline = DEADLINES.schedule( () -> {
+			timedOut.set( true );
+			request.abort();
+		}, timeoutMs, TimeUnit.MILLISECONDS );
+
+		final long start = System.nanoTime();
+		try ( CloseableHttpResponse response = client.execute( request ) )
+		{
+			// NB: content length of the response as sent, unless it was chunked or compressed
+			final long contentLength = response.getEntity().getContentLength();
+			final byte[] bytes = EntityUtils.toByteArray( response.getEntity() );
+			final Charset charset = ContentType.getOrDefault( response.getEntity() ).getCharset();
+			final String body = new String( bytes, charset != null ? charset : StandardCharsets.UTF_8 );
+			if (response.getStatusLine().getStatusCode() != HttpStatus.SC_OK)
+			{
+				log.warn( "YeastMate: server " + address + " returned " + response.getStatusLine() );
+				concurrencyLimit.onResult( start, false );
+				outcome.set( DetectionBackends.Outcome.REJECTED );
+				return null;
+			}
+			final long nanos = System.nanoTime() - start;
+			metrics.addTime( frame, DetectionMetrics.Stage.REQUEST, nanos );
+			metrics.addBytes( frame, entity.getContentLength(), contentLength >= 0 ? contentLength : bytes.length );
+			addLatency( nanos );
+			concurrencyLimit.onResult( start, true );
+
+			final long startDecoding = System.nanoTime();
+			final JSONObject result = new JSONObject( body );
+			metrics.addTime( frame, DetectionMetrics.Stage.DECODING, System.nanoTime() - startDecoding );
+			outcome.set( DetectionBackends.Outcome.SUCCESS );
+			return result;
+		}
+		catch (JSONException e)
+		{
+			log.warn( "YeastMate: unreadable response from " + address + ": " + e );
+			outcome.set( DetectionBackends.Outcome.REJECTED );
+			return null;
+		}
+		catch (IOException e)
+		{
+			// aborted requests (hedging, cancel) are expected to fail
+			if (request.isAborted() && !timedOut.get())
+				outcome.set( DetectionBackends.Outcome.ABORTED );
+			else
+			{
+				log.warn( "YeastMate: request to " + address + ( timedOut.get() ? " timed out after " + timeoutMs + " ms" : " failed: " + e ) );
+				concurrencyLimit.onResult( start, false );
+				outcome.set( DetectionBackends.Outcome.CONNECTION_FAILED );
+			}
+			return null;
+		}
+		finally {
+			deadline.cancel( false );
+			inFlight.remove( request );
+		}
+	}
+
+	private synchronized void addLatency(long nanos) {
+		latencies[nLatencies % LATENCY_WINDOW] = nanos;
+		nLatencies++;
+	}
+
+	/**
+	 * @return percentile of recent request latencies in nanoseconds or -1 if not enough requests have finished
+	 */
+	private synchronized long getLatencyPercentile(double percentile) {
+		final int n = Math.min( nLatencies, LATENCY_WINDOW );
+		if (n < MIN_LATENCIES_FOR_HEDGING)
+			return -1;
+		final long[] sorted = Arrays.copyOf( latencies, n );
+		Arrays.sort( sorted );
+		return sorted[Math.min( n - 1, (int) ( percentile * n ) )];
+	}
+
+	private static void abort(HttpPost request) {
+		if (request != null)
+			request.abort();
+	}
+
+	/**
+	 * abort all requests currently in flight
+	 */
+	public void abortAll() {
+		inFlight.forEach( HttpPost::abort );
+	}
+
+	@Override
+	public void close() {
+		if (hedgeExecutor != null)
+			hedgeExecutor.shutdownNow();
+		try {
+			client.close();
+		}
+		catch (IOException e) {
+			log.warn( "YeastMate: could not close HTTP client", e );
+		}
+	}
+}
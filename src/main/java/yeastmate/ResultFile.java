@@ -0,0 +1,246 @@
+package yeastmate;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import ij.ImagePlus;
+
+/**
+ * compact on-disk format for YeastMate results, written frame by frame while detecting
+ * 
+ * layout: magic "YMR1", then one record per frame: int length of record, followed by
+ * <ul>
+ * <li>frame index, width, height</li>
+ * <li>ROI position: stack position, channel, slice, timepoint</li>
+ * <li>original (untracked) label mask as per-row runs: int number of runs, then (int start pixel, short length, short label) per run</li>
+ * <li>detections: int count, then per detection: int label, byte number of classes, class codes (e.g. 12 for "1.2"),
+ * byte number of scores, float scores, 4 float box coordinates, short number of links, int links</li>
+ * <li>tracking: int count, then (int label, int tracked label) pairs</li>
+ * </ul>
+ * all numbers are big-endian, as written by {@link DataOutputStream}
+ */
+public class ResultFile {
+
+	public static final String EXTENSION = ".ymr";
+	private static final byte[] MAGIC = { 'Y', 'M', 'R', '1' };
+
+	/**
+	 * results of a single frame as stored in the file
+	 */
+	public static class Frame {
+		public final int frame;
+		public final int width;
+		public final int height;
+		// position of the frame's ROIs in the image
+		public final RoiPosition position;
+		// original labels as returned by detection server
+		public final RleLabelMask mask;
+		public final DetectionTable detections;
+		// original label -> tracked label
+		public final Map<Integer, Integer> labelRemap;
+
+		public Frame(int frame, RoiPosition position, RleLabelMask mask, DetectionTable detections, Map<Integer, Integer> labelRemap) {
+			this.frame = frame;
+			this.width = mask.getWidth();
+			this.height = mask.getHeight();
+			this.position = position;
+			this.mask = mask;
+			this.detections = detections;
+			this.labelRemap = labelRemap;
+		}
+
+		public ImagePlus getMask() {
+			return mask.toImagePlus( "mask" );
+		}
+	}
+
+	/**
+	 * appends frames to a result file, every frame is flushed so that the file can be read while still being written
+	 */
+	public static class Writer implements AutoCloseable {
+
+		private final DataOutputStream out;
+
+		public Writer(File file) throws IOException {
+			out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( file ) ) );
+			out.write( MAGIC );
+			out.flush();
+		}
+
+		public synchronized void writeFrame(Frame frame) throws IOException {
+			final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			final DataOutputStream record = new DataOutputStream( bytes );
+			record.writeInt( frame.frame );
+			record.writeInt( frame.width );
+			record.writeInt( frame.height );
+			record.writeInt( frame.position.position );
+			record.writeInt( frame.position.channel );
+			record.writeInt( frame.position.slice );
+			record.writeInt( frame.position.timepoint );
+			writeRuns( record, frame.mask );
+			writeDetections( record, frame.detections );
+			record.writeInt( frame.labelRemap.size() );
+			for (Map.Entry<Integer, Integer> e : frame.labelRemap.entrySet())
+			{
+				record.writeInt( e.getKey() );
+				record.writeInt( e.getValue() );
+			}
+			record.flush();
+
+			out.writeInt( bytes.size() );
+			bytes.writeTo( out );
+			out.flush();
+		}
+
+		private static void writeRuns(DataOutputStream record, RleLabelMask rle) throws IOException {
+			record.writeInt( rle.getNumberOfRuns() );
+			for (int r = 0; r < rle.getNumberOfRuns(); r++)
+			{
+				// runs do not cross rows, so length fits into an unsigned short
+				record.writeInt( rle.getRunStart( r ) );
+				record.writeShort( rle.getRunLength( r ) );
+				record.writeShort( rle.getRunLabel( r ) );
+			}
+		}
+
+		private static void writeDetections(DataOutputStream record, DetectionTable detections) throws IOException {
+			record.writeInt( detections.size() );
+			for (int d = 0; d < detections.size(); d++)
+			{
+				record.writeInt( detections.getId( d ) );
+
+				record.writeByte( detections.getNumberOfClasses( d ) );
+				for (int i = 0; i < detections.getNumberOfClasses( d ); i++)
+					record.writeByte( detections.getClass( d, i ) );
+
+				record.writeByte( detections.getNumberOfScores( d ) );
+				for (int i = 0; i < detections.getNumberOfScores( d ); i++)
+					record.writeFloat( detections.getScore( d, i ) );
+
+				for (int i = 0; i < 4; i++)
+					record.writeFloat( (float) detections.getBox( d, i ) );
+
+				record.writeShort( detections.getNumberOfLinks( d ) );
+				for (int i = 0; i < detections.getNumberOfLinks( d ); i++)
+					record.writeInt( detections.getLink( d, i ) );
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			out.close();
+		}
+	}
+
+	/**
+	 * memory-mapped result file, frames are only decoded when requested
+	 */
+	public static class Reader implements AutoCloseable {
+
+		private final RandomAccessFile file;
+		private final ByteBuffer buffer;
+		private final List<Integer> recordOffsets = new ArrayList<>();
+
+		public Reader(File f) throws IOException {
+			file = new RandomAccessFile( f, "r" );
+			final long size = file.length();
+			if (size > Integer.MAX_VALUE)
+				throw new IOException( "result files > 2GB are not supported" );
+			buffer = file.getChannel().map( FileChannel.MapMode.READ_ONLY, 0, size );
+
+			for (int i = 0; i < MAGIC.length; i++)
+				if (size < MAGIC.length || buffer.get( i ) != MAGIC[i])
+					throw new IOException( f + " is not a YeastMate result file" );
+
+			// index records, a truncated last record (file still being written) is ignored
+			int pos = MAGIC.length;
+			while (pos + 4 <= size)
+			{
+				final int length = buffer.getInt( pos );
+				if (pos + 4L + length > size)
+					break;
+				recordOffsets.add( pos + 4 );
+				pos += 4 + length;
+			}
+		}
+
+		public int getNumberOfFrames() {
+			return recordOffsets.size();
+		}
+
+		public Frame getFrame(int index) throws IOException {
+			final ByteBuffer record = buffer.duplicate();
+			record.position( recordOffsets.get( index ) );
+
+			final int frame = record.getInt();
+			final int width = record.getInt();
+			final int height = record.getInt();
+			final RoiPosition position = new RoiPosition( record.getInt(), record.getInt(), record.getInt(), record.getInt() );
+
+			final int nRuns = record.getInt();
+			final int[] starts = new int[nRuns];
+			final int[] lengths = new int[nRuns];
+			final int[] labels = new int[nRuns];
+			for (int r = 0; r < nRuns; r++)
+			{
+				starts[r] = record.getInt();
+				lengths[r] = record.getShort() & 0xffff;
+				labels[r] = record.getShort() & 0xffff;
+			}
+			final RleLabelMask mask = RleLabelMask.fromRuns( width, height, starts, lengths, labels );
+
+			final DetectionTable detections = readDetections( record );
+			final Map<Integer, Integer> labelRemap = new HashMap<>();
+			final int nRemap = record.getInt();
+			for (int i = 0; i < nRemap; i++)
+				labelRemap.put( record.getInt(), record.getInt() );
+			return new Frame( frame, position, mask, detections, labelRemap );
+		}
+
+		private static DetectionTable readDetections(ByteBuffer record) {
+			final int n = record.getInt();
+			final DetectionTable.Builder builder = new DetectionTable.Builder( n );
+			for (int d = 0; d < n; d++)
+			{
+				final int label = record.getInt();
+
+				final int nClasses = record.get();
+				final int[] classes = new int[nClasses];
+				for (int i = 0; i < nClasses; i++)
+					classes[i] = record.get();
+
+				final int nScores = record.get();
+				final float[] scores = new float[nScores];
+				for (int i = 0; i < nScores; i++)
+					scores[i] = record.getFloat();
+
+				builder.add( label, record.getFloat(), record.getFloat(), record.getFloat(), record.getFloat() );
+				for (int c : classes)
+					builder.addClass( c );
+				for (float score : scores)
+					builder.addScore( score );
+
+				final int nLinks = record.getShort();
+				for (int i = 0; i < nLinks; i++)
+					builder.addLink( record.getInt() );
+			}
+			return builder.build();
+		}
+
+		@Override
+		public void close() throws IOException {
+			file.close();
+		}
+	}
+}
@@ -0,0 +1,122 @@
+package yeastmate;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.scijava.app.StatusService;
+import org.scijava.command.Command;
+import org.scijava.log.LogService;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.gui.Roi;
+import ij.process.ShortProcessor;
+import net.imagej.lut.LUTService;
+
+/**
+ * track the last timeseries run of {@link YeastMate} on an image again with another minimum overlap,
+ * from the IoU tables kept from that run (no detection, mask intersections only to close tracking gaps)
+ *
+ * The ROIs of the run (or of the last re-tracking) are replaced in the ROI Manager or overlay they were added to.
+ */
+@Plugin(type = Command.class, headless = true,
+	menuPath = "Plugins>YeastMate Tools>Re-track")
+public class RetrackYeastMateResults implements Command {
+
+	@Parameter
+	private LogService log;
+
+	@Parameter
+	private StatusService statusService;
+
+	@Parameter
+	private LUTService lutService;
+
+	@Parameter
+	private ImagePlus image;
+
+	@Parameter(label = "Minimum Overlap for tracking in timeseries", style = "slider", min = "0.005", max = "1", stepSize = "0.005")
+	private Double minTrackingOverlap = 0.25;
+
+	@Parameter(label = "Add single cell ROIs?")
+	private Boolean addSingleRois = false;
+
+	@Parameter(label = "Add mating ROIs?")
+	private Boolean addMatingRois = true;
+
+	@Parameter(label = "Add budding ROIs?")
+	private Boolean addBuddingRois = false;
+
+	@Parameter(label = "Show segmentation mask?")
+	private Boolean showSegmentation = true;
+
+	@Parameter(label = "Only include cells from selected classes in mask?")
+	private Boolean onlySelectedClassesInMask = false;
+
+	@Override
+	public void run() {
+
+		final YeastMate.LastTracking lastTracking = YeastMate.getLastTracking(image);
+		if (lastTracking == null)
+		{
+			log.error("YeastMate: no complete mask overlap (IoU) tracking of " + image.getTitle() + " to re-track, please run YeastMate on it first.");
+			return;
+		}
+
+		final Tracker last = lastTracking.tracker;
+		final long start = System.nanoTime();
+		final Tracker tracker = last.retrack(minTrackingOverlap);
+		log.info(String.format("YeastMate: re-tracked %d frame(s) in %.1f ms, %d tracks (before: %d)", tracker.getNumberOfFrames(),
+				(System.nanoTime() - start) / 1e6, tracker.getTracks().getNumberOfTracks(), last.getTracks().getNumberOfTracks()));
+
+		// ROIs and mask named by the new tracks, as in Load Results, ROIs positioned as in the run
+		final int nFrames = tracker.getNumberOfFrames();
+		try (RoiOutput rois = lastTracking.rois.sameDestination())
+		{
+			lastTracking.rois.removeShown();
+			// the next re-tracking replaces these ROIs
+			YeastMate.setLastTracking(image, new YeastMate.LastTracking(tracker, lastTracking.roiPositions, rois));
+
+			ImageStack maskStack = null;
+			for (int i = 0; i < nFrames; i++)
+			{
+				statusService.showProgress(i, nFrames);
+				final Tracker.Frame frame = tracker.getFrame(i);
+				final Map<Integer, Integer> labelRemap = tracker.getTracks().getLabelRemap(frame.frame);
+				final ImagePlus mask = frame.mask.toImagePlus("mask");
+
+				final Set<Integer> cellsOfSelectedClasses = new HashSet<>();
+				for (Roi roi : YeastMate.createRois(frame.detections, labelRemap, mask, addSingleRois, addMatingRois, addBuddingRois, cellsOfSelectedClasses))
+				{
+					lastTracking.roiPositions.getOrDefault(frame.frame, RoiPosition.of(frame.frame + 1)).apply(roi);
+					rois.add(roi);
+				}
+
+				if (showSegmentation)
+				{
+					if (maskStack == null)
+						maskStack = new ImageStack(frame.mask.getWidth(), frame.mask.getHeight());
+					ShortProcessor slice = new ShortProcessor(frame.mask.getWidth(), frame.mask.getHeight());
+					YeastMate.fillMaskSlice(mask, labelRemap, onlySelectedClassesInMask ? cellsOfSelectedClasses : null, (short[]) slice.getPixels());
+					maskStack.addSlice(slice);
+				}
+			}
+			statusService.showProgress(nFrames, nFrames);
+
+			if (maskStack != null)
+			{
+				ImagePlus maskIP = new ImagePlus("segmentation of " + image.getTitle() + " (re-tracked)", maskStack);
+				maskIP.resetDisplayRange();
+				YeastMate.trySetLUT(lutService, maskIP, false);
+				maskIP.show();
+			}
+		}
+		catch (IOException e) {
+			log.error("YeastMate: could not add ROIs", e);
+		}
+	}
+}
@@ -0,0 +1,325 @@
+package yeastmate;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import ij.ImagePlus;
+import ij.process.ShortProcessor;
+import net.imglib2.util.Pair;
+import net.imglib2.util.ValuePair;
+
+/**
+ * 2D label mask stored as per-row runs of constant (non-zero) label.
+ *
+ * Masks of yeast fields of view are mostly background, so label statistics (areas, boxes, centroids)
+ * and overlaps between frames are computed from the runs instead of visiting every pixel.
+ * Results are equivalent to the pixel-based methods in {@link LabelTools}.
+ */
+public class RleLabelMask {
+
+	private final int width;
+	private final int height;
+
+	// runs of row y are rowStarts[y] ... rowStarts[y+1]-1, sorted by x
+	private final int[] rowStarts;
+	private final int[] runX;
+	private final int[] runLength;
+	private final int[] runLabel;
+
+	private RleLabelMask(int width, int height, int[] rowStarts, int[] runX, int[] runLength, int[] runLabel) {
+		this.width = width;
+		this.height = height;
+		this.rowStarts = rowStarts;
+		this.runX = runX;
+		this.runLength = runLength;
+		this.runLabel = runLabel;
+	}
+
+	/**
+	 * encode an unsigned 16-bit label image (row-major, e.g. pixels of a ShortProcessor)
+	 */
+	public static RleLabelMask fromPixels(short[] pixels, int width, int height) {
+		final int[] rowStarts = new int[height + 1];
+
+		// count runs first so that run arrays are allocated once
+		int nRuns = 0;
+		for (int y = 0; y < height; y++)
+		{
+			rowStarts[y] = nRuns;
+			final int offset = y * width;
+			short previous = 0;
+			for (int x = 0; x < width; x++)
+			{
+				final short v = pixels[offset + x];
+				if (v != 0 && v != previous)
+					nRuns++;
+				previous = v;
+			}
+		}
+		rowStarts[height] = nRuns;
+
+		final int[] runX = new int[nRuns];
+		final int[] runLength = new int[nRuns];
+		final int[] runLabel = new int[nRuns];
+		int r = -1;
+		for (int y = 0; y < height; y++)
+		{
+			final int offset = y * width;
+			short previous = 0;
+			for (int x = 0; x < width; x++)
+			{
+				final short v = pixels[offset + x];
+				if (v != 0)
+				{
+					if (v != previous)
+					{
+						r++;
+						runX[r] = x;
+						runLabel[r] = v & 0xffff;
+					}
+					runLength[r]++;
+				}
+				previous = v;
+			}
+		}
+		return new RleLabelMask(width, height, rowStarts, runX, runLength, runLabel);
+	}
+
+	public static RleLabelMask fromImagePlus(ImagePlus mask) {
+		return fromPixels((short[]) mask.getProcessor().convertToShortProcessor(false).getPixels(), mask.getWidth(), mask.getHeight());
+	}
+
+	/**
+	 * build from runs given as (linear start index, length, label), ordered by start index and not crossing rows
+	 */
+	public static RleLabelMask fromRuns(int width, int height, int[] starts, int[] lengths, int[] labels) {
+		final int nRuns = starts.length;
+		final int[] rowStarts = new int[height + 1];
+		final int[] runX = new int[nRuns];
+		int y = 0;
+		for (int r = 0; r < nRuns; r++)
+		{
+			final int runY = starts[r] / width;
+			while (y < runY)
+				rowStarts[++y] = r;
+			runX[r] = starts[r] - runY * width;
+		}
+		while (y < height)
+			rowStarts[++y] = nRuns;
+		return new RleLabelMask(width, height, rowStarts, runX, lengths.clone(), labels.clone());
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public int getNumberOfRuns() {
+		return runX.length;
+	}
+
+	/**
+	 * linear pixel index of the first pixel of run r
+	 */
+	public int getRunStart(int r) {
+		return rowOf(r) * width + runX[r];
+	}
+
+	public int getRunLength(int r) {
+		return runLength[r];
+	}
+
+	public int getRunLabel(int r) {
+		return runLabel[r];
+	}
+
+	private int rowOf(int r) {
+		// last row whose first run is <= r
+		int y = Arrays.binarySearch(rowStarts, r);
+		if (y < 0)
+			return -y - 2;
+		// empty rows share the same start, use the last of them
+		while (y < height && rowStarts[y + 1] == r)
+			y++;
+		return y;
+	}
+
+	/**
+	 * paint labels into target (row-major, width*height), background pixels are not touched
+	 */
+	public void toPixels(short[] target) {
+		for (int y = 0; y < height; y++)
+			for (int r = rowStarts[y]; r < rowStarts[y + 1]; r++)
+			{
+				final int start = y * width + runX[r];
+				Arrays.fill(target, start, start + runLength[r], (short) runLabel[r]);
+			}
+	}
+
+	public ImagePlus toImagePlus(String title) {
+		final short[] pixels = new short[width * height];
+		toPixels(pixels);
+		return new ImagePlus(title, new ShortProcessor(width, height, pixels, null));
+	}
+
+	/**
+	 * labels in raster order of first occurrence (same order as {@link LabelTools#getLabelSet})
+	 */
+	public LinkedHashSet<Integer> getLabelSet() {
+		final LinkedHashSet<Integer> labelSet = new LinkedHashSet<>();
+		for (int r = 0; r < runLabel.length; r++)
+			labelSet.add(runLabel[r]);
+		return labelSet;
+	}
+
+	public Map<Integer, Integer> getAreas() {
+		final Map<Integer, Integer> areas = new HashMap<>();
+		for (int r = 0; r < runLabel.length; r++)
+			areas.merge(runLabel[r], runLength[r], Integer::sum);
+		return areas;
+	}
+
+	/**
+	 * @return label -> {minX, minY, maxX, maxY} (inclusive)
+	 */
+	public Map<Integer, int[]> getBoundingBoxes() {
+		final Map<Integer, int[]> boxes = new HashMap<>();
+		for (int y = 0; y < height; y++)
+			for (int r = rowStarts[y]; r < rowStarts[y + 1]; r++)
+			{
+				final int x1 = runX[r] + runLength[r] - 1;
+				final int[] box = boxes.get(runLabel[r]);
+				if (box == null)
+					boxes.put(runLabel[r], new int[] {runX[r], y, x1, y});
+				else
+				{
+					box[0] = Math.min(box[0], runX[r]);
+					box[2] = Math.max(box[2], x1);
+					box[3] = y;
+				}
+			}
+		return boxes;
+	}
+
+	/**
+	 * @return label -> {x, y} center of mass
+	 */
+	public Map<Integer, double[]> getCentersOfMass() {
+		final Map<Integer, double[]> sums = new HashMap<>();
+		for (int y = 0; y < height; y++)
+			for (int r = rowStarts[y]; r < rowStarts[y + 1]; r++)
+			{
+				final double n = runLength[r];
+				double[] sum = sums.get(runLabel[r]);
+				if (sum == null)
+				{
+					sum = new double[3];
+					sums.put(runLabel[r], sum);
+				}
+				// sum of x over the run is n * (first + last) / 2
+				sum[0] += n * (runX[r] + (n - 1) / 2.0);
+				sum[1] += n * y;
+				sum[2] += n;
+			}
+
+		final Map<Integer, double[]> centersOfMass = new HashMap<>();
+		sums.forEach((label, sum) -> centersOfMass.put(label, new double[] {sum[0] / sum[2], sum[1] / sum[2]}));
+		return centersOfMass;
+	}
+
+	/**
+	 * number of overlapping pixels of all pairs of labels (this, other)
+	 */
+	public Map<Pair<Integer, Integer>, Integer> getIntersections(RleLabelMask other) {
+		checkSameSize(other);
+		final Map<Pair<Integer, Integer>, Integer> intersections = new HashMap<>();
+		for (int y = 0; y < height; y++)
+		{
+			// merge the sorted runs of both rows
+			int r1 = rowStarts[y];
+			int r2 = other.rowStarts[y];
+			final int end1 = rowStarts[y + 1];
+			final int end2 = other.rowStarts[y + 1];
+			while (r1 < end1 && r2 < end2)
+			{
+				final int a1 = runX[r1], b1 = a1 + runLength[r1];
+				final int a2 = other.runX[r2], b2 = a2 + other.runLength[r2];
+				final int overlap = Math.min(b1, b2) - Math.max(a1, a2);
+				if (overlap > 0)
+					intersections.merge(new ValuePair<>(runLabel[r1], other.runLabel[r2]), overlap, Integer::sum);
+				if (b1 < b2)
+					r1++;
+				else
+					r2++;
+			}
+		}
+		return intersections;
+	}
+
+	/**
+	 * IoU of all overlapping pairs of labels (this, other), same as {@link LabelTools#getIoUs}
+	 */
+	public Map<Pair<Integer, Integer>, Double> getIoUs(RleLabelMask other) {
+		final Map<Integer, Integer> areas1 = getAreas();
+		final Map<Integer, Integer> areas2 = other.getAreas();
+		final Map<Pair<Integer, Integer>, Double> ious = new HashMap<>();
+		getIntersections(other).forEach((k, intersection) -> {
+			final double a1 = areas1.get(k.getA());
+			final double a2 = areas2.get(k.getB());
+			final double i = intersection;
+			ious.put(k, i / (a1 + a2 - i));
+		});
+		return ious;
+	}
+
+	/**
+	 * mask with only the runs of labels (e.g. to intersect only some labels with another mask, areas stay the same)
+	 */
+	public RleLabelMask subset(Set<Integer> labels) {
+		int n = 0;
+		for (int r = 0; r < runLabel.length; r++)
+			if (labels.contains(runLabel[r]))
+				n++;
+
+		final int[] newRowStarts = new int[height + 1];
+		final int[] newRunX = new int[n];
+		final int[] newRunLength = new int[n];
+		final int[] newRunLabel = new int[n];
+		n = 0;
+		for (int y = 0; y < height; y++)
+		{
+			newRowStarts[y] = n;
+			for (int r = rowStarts[y]; r < rowStarts[y + 1]; r++)
+				if (labels.contains(runLabel[r]))
+				{
+					newRunX[n] = runX[r];
+					newRunLength[n] = runLength[r];
+					newRunLabel[n] = runLabel[r];
+					n++;
+				}
+		}
+		newRowStarts[height] = n;
+		return new RleLabelMask(width, height, newRowStarts, newRunX, newRunLength, newRunLabel);
+	}
+
+	/**
+	 * copy with labels replaced according to labelMapping (labels not in the map are kept)
+	 */
+	public RleLabelMask relabel(Map<Integer, Integer> labelMapping) {
+		final int[] newLabels = new int[runLabel.length];
+		for (int r = 0; r < runLabel.length; r++)
+			newLabels[r] = labelMapping.getOrDefault(runLabel[r], runLabel[r]);
+		return new RleLabelMask(width, height, rowStarts, runX, runLength, newLabels);
+	}
+
+	private void checkSameSize(RleLabelMask other) {
+		if (other.width != width || other.height != height)
+			throw new IllegalArgumentException("masks differ in size: " + width + "x" + height + " vs. " + other.width + "x" + other.height);
+	}
+}
@@ -0,0 +1,248 @@
+package yeastmate;
+
+import java.awt.EventQueue;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import ij.ImagePlus;
+import ij.gui.Overlay;
+import ij.gui.Roi;
+import ij.io.RoiEncoder;
+import ij.plugin.frame.RoiManager;
+
+/**
+ * destination of the ROIs of a detection run: ROI Manager, overlay of an image or ROI zip file.
+ *
+ * ROIs are collected as they are created (off the EDT) and handed over in batches:
+ * {@link RoiManager#addRoi(Roi)} rebuilds the "Show All" overlay from all ROIs on every insertion,
+ * which makes adding one by one quadratic once there are tens of thousands of ROIs.
+ * Overlay and zip output bypass the ROI Manager entirely.
+ * ROIs handed to the ROI Manager or an overlay are remembered, so that they can be replaced later (e.g. when re-tracking).
+ */
+public class RoiOutput implements AutoCloseable {
+
+	// hand over at least this often (so that ROIs show up while a long run is going) ...
+	private static final long FLUSH_INTERVAL_MS = 1000;
+	// ... or once this many ROIs are pending
+	private static final int MAX_PENDING = 5000;
+
+	// weak, as outputs are kept with the tracking of an image (keyed weakly by the image) for re-tracking
+	private final WeakReference<ImagePlus> overlayImage;
+	private final ZipOutputStream zip;
+
+	private List<Roi> pending = new ArrayList<>();
+	// handed over to ROI Manager (the copies it keeps) or overlay
+	private final List<Roi> shown = new ArrayList<>();
+	private long lastFlush = System.currentTimeMillis();
+	private int count;
+
+	private RoiOutput(ImagePlus overlayImage, ZipOutputStream zip) {
+		this.overlayImage = overlayImage != null ? new WeakReference<>( overlayImage ) : null;
+		this.zip = zip;
+	}
+
+	/**
+	 * add to the open ROI Manager (a new one is created on first flush if there is none)
+	 */
+	public static RoiOutput toRoiManager() {
+		return new RoiOutput( null, null );
+	}
+
+	/**
+	 * add to (existing) overlay of image
+	 */
+	public static RoiOutput toOverlay(ImagePlus image) {
+		return new RoiOutput( image, null );
+	}
+
+	/**
+	 * write to a ROI zip file that can be opened with the ROI Manager
+	 */
+	public static RoiOutput toZip(File file) throws IOException {
+		return new RoiOutput( null, new ZipOutputStream( new BufferedOutputStream( new FileOutputStream( file ) ) ) );
+	}
+
+	/**
+	 * @return new output to the same ROI Manager or overlay (ROI Manager for zip output)
+	 */
+	public RoiOutput sameDestination() {
+		final ImagePlus image = getOverlayImage();
+		return image != null ? toOverlay( image ) : toRoiManager();
+	}
+
+	/**
+	 * @return image of overlay output or null (also if it has been garbage collected)
+	 */
+	private ImagePlus getOverlayImage() {
+		return overlayImage != null ? overlayImage.get() : null;
+	}
+
+	/**
+	 * queue ROI, it is handed over on the next due flush
+	 */
+	public void add(Roi roi) {
+		pending.add( roi );
+		count++;
+	}
+
+	/**
+	 * @return number of ROIs added so far
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * hand over pending ROIs if enough time has passed or enough ROIs are pending
+	 */
+	public void flushIfDue() throws IOException {
+		if (pending.size() >= MAX_PENDING || System.currentTimeMillis() - lastFlush >= FLUSH_INTERVAL_MS)
+			flush();
+	}
+
+	/**
+	 * hand over all pending ROIs
+	 */
+	public void flush() throws IOException {
+		lastFlush = System.currentTimeMillis();
+		if (pending.isEmpty())
+			return;
+		final List<Roi> batch = pending;
+		pending = new ArrayList<>();
+
+		if (zip != null)
+			writeZip( batch );
+		else if (overlayImage != null)
+			addToOverlay( batch );
+		else
+			addToRoiManager( batch );
+	}
+
+	/**
+	 * remove all ROIs handed over so far from the ROI Manager or overlay (as far as they are still there)
+	 */
+	public void removeShown() throws IOException {
+		if (shown.isEmpty())
+			return;
+		final Set<Roi> remove = Collections.newSetFromMap( new IdentityHashMap<>() );
+		remove.addAll( shown );
+		shown.clear();
+
+		if (overlayImage != null)
+		{
+			final ImagePlus image = overlayImage.get();
+			final Overlay overlay = image != null ? image.getOverlay() : null;
+			if (overlay == null)
+				return;
+			for (Roi roi : overlay.toArray())
+				if (remove.contains( roi ))
+					overlay.remove( roi );
+			image.setOverlay( overlay );
+			return;
+		}
+
+		runOnEDT( () -> {
+			final RoiManager manager = RoiManager.getInstance();
+			if (manager == null)
+				return;
+			final Roi[] rois = manager.getRoisAsArray();
+			final List<Integer> indexes = new ArrayList<>();
+			for (int i = 0; i < rois.length; i++)
+				if (remove.contains( rois[i] ))
+					indexes.add( i );
+			if (indexes.isEmpty())
+				return;
+			// deletes the selected entries only, without asking
+			manager.setSelectedIndexes( indexes.stream().mapToInt( Integer::intValue ).toArray() );
+			manager.runCommand( "Delete" );
+		} );
+	}
+
+	private void writeZip(List<Roi> batch) throws IOException {
+		final RoiEncoder encoder = new RoiEncoder( zip );
+		final int first = count - batch.size();
+		for (int i = 0; i < batch.size(); i++)
+		{
+			zip.putNextEntry( new ZipEntry( String.format( "%06d.roi", first + i + 1 ) ) );
+			encoder.write( batch.get( i ) );
+			zip.closeEntry();
+		}
+		zip.flush();
+	}
+
+	private void addToOverlay(List<Roi> batch) {
+		final ImagePlus image = overlayImage.get();
+		if (image == null)
+			return;
+		Overlay overlay = image.getOverlay();
+		if (overlay == null)
+			overlay = new Overlay();
+		for (Roi roi : batch)
+			overlay.add( roi );
+		image.setOverlay( overlay );
+		shown.addAll( batch );
+	}
+
+	private void addToRoiManager(List<Roi> batch) throws IOException {
+		// all insertions in a single task on the EDT, instead of one list update per ROI from this thread
+		runOnEDT( () -> {
+			RoiManager manager = RoiManager.getInstance();
+			if (manager == null)
+				manager = new RoiManager();
+			// add(imp, roi, n) only appends to the list (as when moving an overlay to the ROI Manager),
+			// the last ROI goes through addRoi, so that "Show All" is refreshed once per batch
+			final int last = batch.size() - 1;
+			for (int i = 0; i < last; i++)
+			{
+				manager.add( (ImagePlus) null, batch.get( i ), -1 );
+				shown.add( manager.getRoi( manager.getCount() - 1 ) );
+			}
+			final int count = manager.getCount();
+			manager.addRoi( batch.get( last ) );
+			if (manager.getCount() > count)
+				shown.add( manager.getRoi( manager.getCount() - 1 ) );
+		} );
+	}
+
+	private static void runOnEDT(Runnable task) throws IOException {
+		if (EventQueue.isDispatchThread())
+		{
+			task.run();
+			return;
+		}
+		try {
+			EventQueue.invokeAndWait( task );
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		catch (InvocationTargetException e) {
+			throw new IOException( e.getCause() );
+		}
+	}
+
+	/**
+	 * flush remaining ROIs and close zip file
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			flush();
+		}
+		finally {
+			if (zip != null)
+				zip.close();
+		}
+	}
+}
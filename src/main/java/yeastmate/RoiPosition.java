@@ -0,0 +1,53 @@
+package yeastmate;
+
+import ij.ImagePlus;
+import ij.gui.Roi;
+
+/**
+ * position of ROIs in an image, as set by {@link Roi#setPosition(ImagePlus)}:
+ * a stack position, or channel, slice and timepoint in a hyperstack (0: none)
+ */
+public class RoiPosition {
+
+	public static final RoiPosition NONE = new RoiPosition( 0, 0, 0, 0 );
+
+	public final int position;
+	public final int channel;
+	public final int slice;
+	public final int timepoint;
+
+	public RoiPosition(int position, int channel, int slice, int timepoint) {
+		this.position = position;
+		this.channel = channel;
+		this.slice = slice;
+		this.timepoint = timepoint;
+	}
+
+	/**
+	 * @return stack position n (e.g. a frame index for frames that are not part of an image)
+	 */
+	public static RoiPosition of(int position) {
+		return new RoiPosition( position, 0, 0, 0 );
+	}
+
+	/**
+	 * @return position of ROIs in the current plane of image
+	 */
+	public static RoiPosition of(ImagePlus image) {
+		final Roi roi = new Roi( 0, 0, 1, 1 );
+		roi.setPosition( image );
+		if (roi.hasHyperStackPosition())
+			return new RoiPosition( 0, roi.getCPosition(), roi.getZPosition(), roi.getTPosition() );
+		return of( roi.getPosition() );
+	}
+
+	/**
+	 * position roi here
+	 */
+	public void apply(Roi roi) {
+		if (channel > 0 || slice > 0 || timepoint > 0)
+			roi.setPosition( channel, slice, timepoint );
+		else
+			roi.setPosition( position );
+	}
+}
@@ -0,0 +1,157 @@
+package yeastmate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * what detection server(s) support, as announced in their /status response:
+ *
+ * <pre>
+ * {"name": "YeastMate", "model_version": "...",
+ *  "input_encodings": ["float32", "uint16_fixed_point"], "request_compression": ["gzip"],
+ *  "mask_encodings": ["tiff"], "max_batch_size": 1, "max_image_size": 4096}
+ * </pre>
+ *
+ * Missing keys (older servers) mean today's protocol: float32 TIFF upload without compression, TIFF mask,
+ * one image per request of any size.
+ */
+public class ServerCapabilities {
+
+	public static final String INPUT_FLOAT = "float32";
+	public static final String INPUT_FIXED_POINT = "uint16_fixed_point";
+	public static final String COMPRESSION_GZIP = "gzip";
+	public static final String MASK_TIFF = "tiff";
+
+	// what servers without capability keys support
+	public static final ServerCapabilities DEFAULT = new ServerCapabilities( null,
+			Arrays.asList( INPUT_FLOAT ), new ArrayList<>(), Arrays.asList( MASK_TIFF ), 1, Integer.MAX_VALUE );
+
+	private final String modelVersion;
+	private final Set<String> inputEncodings;
+	private final Set<String> requestCompression;
+	private final Set<String> maskEncodings;
+	private final int maxBatchSize;
+	private final int maxImageSize;
+
+	private ServerCapabilities(String modelVersion, Iterable<String> inputEncodings, Iterable<String> requestCompression,
+			Iterable<String> maskEncodings, int maxBatchSize, int maxImageSize) {
+		this.modelVersion = modelVersion;
+		this.inputEncodings = toSet( inputEncodings );
+		this.requestCompression = toSet( requestCompression );
+		this.maskEncodings = toSet( maskEncodings );
+		this.maxBatchSize = maxBatchSize;
+		this.maxImageSize = maxImageSize;
+	}
+
+	private static Set<String> toSet(Iterable<String> values) {
+		final Set<String> set = new LinkedHashSet<>();
+		values.forEach( set::add );
+		return set;
+	}
+
+	/**
+	 * @param status parsed /status response, may be null
+	 */
+	public static ServerCapabilities fromStatus(JSONObject status) {
+		if (status == null)
+			return DEFAULT;
+		try {
+			return new ServerCapabilities(
+					status.has( "model_version" ) ? status.getString( "model_version" ) : null,
+					getStrings( status, "input_encodings", DEFAULT.inputEncodings ),
+					getStrings( status, "request_compression", DEFAULT.requestCompression ),
+					getStrings( status, "mask_encodings", DEFAULT.maskEncodings ),
+					status.has( "max_batch_size" ) ? Math.max( 1, status.getInt( "max_batch_size" ) ) : DEFAULT.maxBatchSize,
+					// 0 or negative: no limit
+					status.has( "max_image_size" ) && status.getInt( "max_image_size" ) > 0 ? status.getInt( "max_image_size" ) : DEFAULT.maxImageSize );
+		}
+		catch (JSONException e) {
+			// malformed capabilities -> do not rely on any of them
+			e.printStackTrace();
+			return DEFAULT;
+		}
+	}
+
+	private static Iterable<String> getStrings(JSONObject status, String key, Iterable<String> defaultValues) throws JSONException {
+		if (!status.has( key ))
+			return defaultValues;
+		final JSONArray array = status.getJSONArray( key );
+		final List<String> values = new ArrayList<>();
+		for (int i = 0; i < array.length(); i++)
+			values.add( array.getString( i ) );
+		return values;
+	}
+
+	/**
+	 * capabilities of a set of servers (frames may go to any of them): what all healthy servers support,
+	 * from their cached /status
+	 */
+	public static ServerCapabilities of(DetectionBackends backends) {
+		ServerCapabilities common = null;
+		for (DetectionBackends.Backend backend : backends.getBackends())
+		{
+			final ServerStatus status = ServerStatus.getCached( backend.address );
+			if (status == null || !status.ok)
+				continue;
+			final ServerCapabilities capabilities = fromStatus( status.info );
+			common = common == null ? capabilities : common.intersect( capabilities );
+		}
+		return common == null ? DEFAULT : common;
+	}
+
+	private ServerCapabilities intersect(ServerCapabilities other) {
+		final Set<String> input = new LinkedHashSet<>( inputEncodings );
+		input.retainAll( other.inputEncodings );
+		final Set<String> compression = new LinkedHashSet<>( requestCompression );
+		compression.retainAll( other.requestCompression );
+		final Set<String> mask = new LinkedHashSet<>( maskEncodings );
+		mask.retainAll( other.maskEncodings );
+		final String version = modelVersion == null || modelVersion.equals( other.modelVersion ) ? other.modelVersion : modelVersion + ", " + other.modelVersion;
+		return new ServerCapabilities( version, input, compression, mask,
+				Math.min( maxBatchSize, other.maxBatchSize ), Math.min( maxImageSize, other.maxImageSize ) );
+	}
+
+	/**
+	 * @return model version(s) or null if not announced
+	 */
+	public String getModelVersion() {
+		return modelVersion;
+	}
+
+	public boolean supportsInputEncoding(String encoding) {
+		return inputEncodings.contains( encoding );
+	}
+
+	public boolean supportsRequestCompression(String compression) {
+		return requestCompression.contains( compression );
+	}
+
+	public boolean supportsMaskEncoding(String encoding) {
+		return maskEncodings.contains( encoding );
+	}
+
+	public int getMaxBatchSize() {
+		return maxBatchSize;
+	}
+
+	/**
+	 * @return maximum width and height of uploaded images in pixels
+	 */
+	public int getMaxImageSize() {
+		return maxImageSize;
+	}
+
+	@Override
+	public String toString() {
+		return "input " + inputEncodings + ", compression " + requestCompression + ", mask " + maskEncodings
+				+ ", batch " + maxBatchSize + ( maxImageSize < Integer.MAX_VALUE ? ", max size " + maxImageSize : "" )
+				+ ( modelVersion != null ? ", model " + modelVersion : "" );
+	}
+}
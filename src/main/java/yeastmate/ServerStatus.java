@@ -0,0 +1,132 @@
+package yeastmate;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.http.HttpStatus;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.util.EntityUtils;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * result of a /status request to a YeastMate detection server, with a cache of the last known status per address
+ */
+public class ServerStatus {
+
+	// timeout for status request
+	private static final int TIMEOUT_MS = 500;
+
+	// shared client for all status requests
+	private static final CloseableHttpClient CLIENT = HttpClientBuilder.create()
+			.setDefaultRequestConfig( RequestConfig.custom()
+					.setConnectTimeout( TIMEOUT_MS )
+					.setSocketTimeout( TIMEOUT_MS )
+					.setConnectionRequestTimeout( TIMEOUT_MS ).build() )
+			.setMaxConnPerRoute( 4 )
+			.setMaxConnTotal( 32 )
+			.build();
+
+	private static final Map<String, ServerStatus> CACHE = new ConcurrentHashMap<>();
+
+	public final String address;
+	public final boolean ok;
+	// parsed /status response, null if the server could not be reached
+	public final JSONObject info;
+	public final long timestamp;
+
+	private ServerStatus(String address, boolean ok, JSONObject info) {
+		this.address = address;
+		this.ok = ok;
+		this.info = info;
+		this.timestamp = System.currentTimeMillis();
+	}
+
+	public long getAgeMillis() {
+		return System.currentTimeMillis() - timestamp;
+	}
+
+	/**
+	 * @return last known status of server at address or null if it was never queried
+	 */
+	public static ServerStatus getCached(String address) {
+		return CACHE.get( address );
+	}
+
+	/**
+	 * @return cached status if it is younger than maxAgeMillis, fresh status otherwise
+	 */
+	public static ServerStatus query(String address, long maxAgeMillis) {
+		final ServerStatus cached = getCached( address );
+		if (cached != null && cached.getAgeMillis() <= maxAgeMillis)
+			return cached;
+		return query( newRequest( address ), address );
+	}
+
+	/**
+	 * @return GET request for the status endpoint, can be aborted while {@link #query(HttpGet, String)} is running
+	 */
+	public static HttpGet newRequest(String address) {
+		try {
+			return new HttpGet( "http://" + address + "/status" );
+		}
+		catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * run status request (blocking) and update cache, unless the request was aborted
+	 */
+	public static ServerStatus query(HttpGet request, String address) {
+		ServerStatus status;
+		if (request == null)
+			status = new ServerStatus( address, false, null );
+		else
+			status = doQuery( request, address );
+
+		if (request == null || !request.isAborted())
+			CACHE.put( address, status );
+		return status;
+	}
+
+	private static ServerStatus doQuery(HttpGet request, String address) {
+
+		// 1) GET /status endpoint at specified IP
+		try ( CloseableHttpResponse response = CLIENT.execute( request ) ){
+
+			// 2) check that the response code is 200: OK
+			if (response.getStatusLine().getStatusCode() != HttpStatus.SC_OK)
+			{
+				EntityUtils.consume( response.getEntity() );
+				return new ServerStatus( address, false, null );
+			}
+
+			// 3) check that the response is JSON and contains name: YeastMate
+			String responseBody = EntityUtils.toString( response.getEntity() );
+			JSONObject result = null;
+			String name = null;
+			try {
+				result = new JSONObject(responseBody);
+				name = result.getString( "name" );
+			}
+			catch (JSONException e)
+			{
+				return new ServerStatus( address, false, null );
+			}
+
+			return new ServerStatus( address, "YeastMate".equals( name ), result );
+		}
+
+		// if no connection can be made, set server status accordingly
+		catch (IOException | IllegalArgumentException e)
+		{
+			return new ServerStatus( address, false, null );
+		}
+	}
+}
@@ -1,18 +1,17 @@
 package yeastmate;
 
-import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 import javax.swing.JLabel;
+import javax.swing.SwingUtilities;
 
-import org.apache.http.HttpStatus;
-import org.apache.http.client.config.RequestConfig;
-import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClientBuilder;
-import org.apache.http.util.EntityUtils;
-import org.json.JSONException;
-import org.json.JSONObject;
 import org.scijava.Priority;
 import org.scijava.plugin.Plugin;
 import org.scijava.ui.swing.widget.SwingTextWidget;
@@ -26,14 +25,27 @@ public class ServerStatusSwingTextWidget extends SwingTextWidget
 	public static final String CUSTOM_STYLE = "server-status";
 	private JLabel statusLabel = new JLabel("");
 
-	// timeout for status request
-	private static final int TIMEOUT_MS = 500;
+	// wait for typing to pause before probing the server
+	private static final long DEBOUNCE_MS = 300;
+
+	// re-use a known status for this long without probing again
+	private static final long CACHE_MS = 5000;
+
+	// status requests run here, never on the Swing thread
+	private static final ScheduledExecutorService EXECUTOR = Executors.newSingleThreadScheduledExecutor( r -> {
+		Thread t = new Thread( r, "YeastMate server status" );
+		t.setDaemon( true );
+		return t;
+	});
+
+	private ScheduledFuture<?> pendingQuery;
+	private HttpGet inFlightRequest;
 
 	@Override
 	public void updateModel()
 	{
 		super.updateModel();
-		queryServerStatus();
+		scheduleServerStatusQuery();
 	}
 
 	@Override
@@ -42,59 +54,71 @@ public class ServerStatusSwingTextWidget extends SwingTextWidget
 		super.set( model );
 		getComponent().add( statusLabel );
 		refreshWidget();
+		scheduleServerStatusQuery();
 	}
 
-	private void queryServerStatus() {
+	private synchronized void scheduleServerStatusQuery() {
 
-		// build request with timeout
-		RequestConfig config = RequestConfig.custom()
-				.setConnectTimeout( TIMEOUT_MS )
-				.setSocketTimeout( TIMEOUT_MS )
-				.setConnectionRequestTimeout( TIMEOUT_MS ).build();
-		CloseableHttpClient client = HttpClientBuilder.create().setDefaultRequestConfig( config ).build();
+		// NB: value may be a list of servers
+		final String value = getValue();
+		final List<String> addresses = DetectionBackends.parseAddresses( value );
 
-		// 1) GET /status endpoint at specified IP
-		try ( CloseableHttpResponse response = client.execute(new HttpGet( "http://" + getValue() + "/status" )) ){
+		// cancel stale probes for previous address
+		if (pendingQuery != null)
+			pendingQuery.cancel( false );
+		if (inFlightRequest != null)
+			inFlightRequest.abort();
 
-			// 2) check that the response code is 200: OK
-			if (response.getStatusLine().getStatusCode() != HttpStatus.SC_OK)
-			{
-				statusLabel.setText( "Server status: ERROR" );
+		// show last known status right away, only probe again if it is too old
+		final List<ServerStatus> cached = new ArrayList<>();
+		for (String address : addresses)
+			if (ServerStatus.getCached( address ) != null)
+				cached.add( ServerStatus.getCached( address ) );
+		if (!addresses.isEmpty() && cached.size() == addresses.size())
+		{
+			setStatus( value, cached );
+			if (cached.stream().allMatch( status -> status.getAgeMillis() <= CACHE_MS ))
 				return;
-			}
+		}
+		else
+			statusLabel.setText( "Server status: ..." );
 
-			// 3) check that the response is JSON and contains name: YeastMate
-			String responseBody = EntityUtils.toString( response.getEntity() );
-			JSONObject result = null;
-			String name = null;
-			try {
-				result = new JSONObject(responseBody);
-				name = result.getString( "name" );
-			}
-			catch (JSONException e)
-			{
-				e.printStackTrace();
-				statusLabel.setText("Server status: ERROR");
-				return;
+		pendingQuery = EXECUTOR.schedule( () -> queryServerStatus( value, addresses ), DEBOUNCE_MS, TimeUnit.MILLISECONDS );
+	}
+
+	private void queryServerStatus(String value, List<String> addresses) {
+		final List<ServerStatus> statuses = new ArrayList<>();
+		for (String address : addresses)
+		{
+			final HttpGet request = ServerStatus.newRequest( address );
+			synchronized (this) {
+				inFlightRequest = request;
 			}
 
-			if (name==null | !name.equals( "YeastMate" ))
-			{
-				statusLabel.setText("Server status: ERROR");
-				return;
+			statuses.add( ServerStatus.query( request, address ) );
+
+			synchronized (this) {
+				if (inFlightRequest == request)
+					inFlightRequest = null;
 			}
+			// stale probe, address was changed in the meantime
+			if (request != null && request.isAborted())
+				return;
 		}
+		SwingUtilities.invokeLater( () -> setStatus( value, statuses ) );
+	}
 
-		// if no connection can be made, set server status accordingly
-		catch (IOException | IllegalArgumentException e)
-		{
-			statusLabel.setText( "Server status: ERROR" );
+	private void setStatus(String value, List<ServerStatus> statuses) {
+		// address may have changed while we were waiting for the response
+		if (!Objects.equals( value, getValue() ))
 			return;
-		}
-
-
-		statusLabel.setText( "Server status: OK" );
-		return;	
+		final long nOk = statuses.stream().filter( status -> status.ok ).count();
+		if (statuses.isEmpty() || nOk == 0)
+			statusLabel.setText( "Server status: ERROR" );
+		else if (nOk == statuses.size())
+			statusLabel.setText( "Server status: OK" );
+		else
+			statusLabel.setText( "Server status: " + nOk + "/" + statuses.size() + " OK" );
 	}
 
 }
@@ -0,0 +1,218 @@
+package yeastmate;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * tracking results of a timeseries in primitive arrays
+ *
+ * For every frame we keep a dense table (original label in that frame) -> track id, so that lookups are O(1).
+ * Tracks are numbered 1, 2, ... in the order they are created and know their class (0 single cell, 1 mating, 2 budding)
+ * and first/last frame. Lifecycle events link the track of a compound object (mating or budding) to the tracks of
+ * its member cells, with the member's role as class code (11, 12 for matings, 21 mother and 22 daughter for buddings).
+ * Tables of old frames can be dropped with {@link #dropFramesBefore(int)}, e.g. for live runs.
+ */
+public class TrackStore {
+
+	public static final int NO_TRACK = 0;
+
+	// frame - frameOffset -> (label -> track), null for frames without results
+	private int[][] frameTracks = new int[16][];
+	// frames before were dropped
+	private int frameOffset = 0;
+
+	// per track, index = track id (0 unused)
+	private int nTracks;
+	private byte[] trackClass = new byte[64];
+	private int[] firstFrame = new int[64];
+	private int[] lastFrame = new int[64];
+
+	// lifecycle events, in parallel arrays
+	private int nEvents;
+	private int[] eventFrame = new int[64];
+	private int[] eventCompound = new int[64];
+	private int[] eventMember = new int[64];
+	private byte[] eventRole = new byte[64];
+	// per track linked lists of its events (as compound and as member), -1 terminated
+	private int[] firstEventOfTrack = new int[64];
+	private int[] nextEventOfCompound = new int[64];
+	private int[] nextEventOfMember = new int[64];
+
+	public TrackStore() {
+		Arrays.fill( firstEventOfTrack, -1 );
+	}
+
+	/**
+	 * start a new track
+	 *
+	 * @param frame      first frame of track
+	 * @param mainClass  0 (single cell), 1 (mating) or 2 (budding)
+	 * @return new track id
+	 */
+	public synchronized int newTrack(int frame, int mainClass) {
+		final int track = ++nTracks;
+		if (track == trackClass.length)
+		{
+			final int n = 2 * track;
+			trackClass = Arrays.copyOf( trackClass, n );
+			firstFrame = Arrays.copyOf( firstFrame, n );
+			lastFrame = Arrays.copyOf( lastFrame, n );
+			final int oldLength = firstEventOfTrack.length;
+			firstEventOfTrack = Arrays.copyOf( firstEventOfTrack, n );
+			Arrays.fill( firstEventOfTrack, oldLength, n, -1 );
+		}
+		trackClass[track] = (byte) mainClass;
+		firstFrame[track] = frame;
+		lastFrame[track] = frame;
+		return track;
+	}
+
+	/**
+	 * assign label of frame to track
+	 */
+	public synchronized void setTrack(int frame, int label, int track) {
+		if (frame < frameOffset)
+			throw new IllegalArgumentException( "frame " + frame + " was dropped" );
+		final int i = frame - frameOffset;
+		if (i >= frameTracks.length)
+			frameTracks = Arrays.copyOf( frameTracks, Math.max( 2 * frameTracks.length, i + 1 ) );
+		int[] tracks = frameTracks[i];
+		if (tracks == null)
+			tracks = frameTracks[i] = new int[Math.max( 64, label + 1 )];
+		else if (label >= tracks.length)
+			tracks = frameTracks[i] = Arrays.copyOf( tracks, Math.max( 2 * tracks.length, label + 1 ) );
+		tracks[label] = track;
+
+		firstFrame[track] = Math.min( firstFrame[track], frame );
+		lastFrame[track] = Math.max( lastFrame[track], frame );
+	}
+
+	/**
+	 * @return track of label in frame or {@link #NO_TRACK}
+	 */
+	public synchronized int getTrack(int frame, int label) {
+		final int i = frame - frameOffset;
+		if (i < 0 || i >= frameTracks.length)
+			return NO_TRACK;
+		final int[] tracks = frameTracks[i];
+		return tracks == null || label < 0 || label >= tracks.length ? NO_TRACK : tracks[label];
+	}
+
+	/**
+	 * @return label -> track of all labels of frame (as needed for relabeling a mask)
+	 */
+	public synchronized Map<Integer, Integer> getLabelRemap(int frame) {
+		final Map<Integer, Integer> remap = new HashMap<>();
+		final int i = frame - frameOffset;
+		final int[] tracks = i >= 0 && i < frameTracks.length ? frameTracks[i] : null;
+		for (int label = 0; tracks != null && label < tracks.length; label++)
+			if (tracks[label] != NO_TRACK)
+				remap.put( label, tracks[label] );
+		return remap;
+	}
+
+	/**
+	 * forget the label -> track tables of all frames before frame (tracks and events are kept),
+	 * {@link #getTrack(int, int)} returns {@link #NO_TRACK} for them afterwards
+	 */
+	public synchronized void dropFramesBefore(int frame) {
+		final int n = Math.min( frame - frameOffset, frameTracks.length );
+		if (n <= 0)
+			return;
+		System.arraycopy( frameTracks, n, frameTracks, 0, frameTracks.length - n );
+		Arrays.fill( frameTracks, frameTracks.length - n, frameTracks.length, null );
+		frameOffset = frame;
+	}
+
+	/**
+	 * @return highest track id (track ids are 1 ... getNumberOfTracks())
+	 */
+	public synchronized int getNumberOfTracks() {
+		return nTracks;
+	}
+
+	public synchronized int getTrackClass(int track) {
+		return trackClass[track];
+	}
+
+	public synchronized int getFirstFrame(int track) {
+		return firstFrame[track];
+	}
+
+	public synchronized int getLastFrame(int track) {
+		return lastFrame[track];
+	}
+
+	/**
+	 * record that member track takes part in compound track (a mating or budding) in frame
+	 *
+	 * @param role class code of the member (11, 12, 21 or 22)
+	 */
+	public synchronized void addEvent(int frame, int compoundTrack, int memberTrack, int role) {
+		final int e = nEvents++;
+		if (e == eventFrame.length)
+		{
+			final int n = 2 * e;
+			eventFrame = Arrays.copyOf( eventFrame, n );
+			eventCompound = Arrays.copyOf( eventCompound, n );
+			eventMember = Arrays.copyOf( eventMember, n );
+			eventRole = Arrays.copyOf( eventRole, n );
+			nextEventOfCompound = Arrays.copyOf( nextEventOfCompound, n );
+			nextEventOfMember = Arrays.copyOf( nextEventOfMember, n );
+		}
+		eventFrame[e] = frame;
+		eventCompound[e] = compoundTrack;
+		eventMember[e] = memberTrack;
+		eventRole[e] = (byte) role;
+
+		// prepend to the event lists of both tracks, the list a link belongs to is known from the track
+		nextEventOfCompound[e] = firstEventOfTrack[compoundTrack];
+		firstEventOfTrack[compoundTrack] = e;
+		nextEventOfMember[e] = firstEventOfTrack[memberTrack];
+		firstEventOfTrack[memberTrack] = e;
+	}
+
+	/**
+	 * events track takes part in (as compound object or as member cell), latest first
+	 *
+	 * @param mainClass only events of matings (1) or buddings (2), or all events (-1)
+	 * @return event indices, use getEvent* to query them
+	 */
+	public synchronized int[] getEvents(int track, int mainClass) {
+		int[] events = new int[8];
+		int n = 0;
+		int e = track < firstEventOfTrack.length ? firstEventOfTrack[track] : -1;
+		while (e >= 0)
+		{
+			if (mainClass < 0 || eventRole[e] / 10 == mainClass)
+			{
+				if (n == events.length)
+					events = Arrays.copyOf( events, 2 * n );
+				events[n++] = e;
+			}
+			e = eventCompound[e] == track ? nextEventOfCompound[e] : nextEventOfMember[e];
+		}
+		return Arrays.copyOf( events, n );
+	}
+
+	public synchronized int getNumberOfEvents() {
+		return nEvents;
+	}
+
+	public synchronized int getEventFrame(int e) {
+		return eventFrame[e];
+	}
+
+	public synchronized int getEventCompoundTrack(int e) {
+		return eventCompound[e];
+	}
+
+	public synchronized int getEventMemberTrack(int e) {
+		return eventMember[e];
+	}
+
+	public synchronized int getEventRole(int e) {
+		return eventRole[e];
+	}
+}
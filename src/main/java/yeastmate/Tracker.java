@@ -0,0 +1,269 @@
+package yeastmate;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import net.imglib2.util.Pair;
+import net.imglib2.util.ValuePair;
+
+/**
+ * tracking of a timeseries frame by frame: single cells via their masks, matings and buddings via their boxes,
+ * matched either by maximum IoU or by minimum centroid distance
+ *
+ * Optionally, all frames are kept (run-length encoded) together with the sparse IoU tables of every pair of
+ * consecutive frames, so that the timeseries can be re-tracked with another minimum overlap without intersecting
+ * masks again: only the assignments are solved again.
+ */
+public class Tracker {
+
+	/**
+	 * tracked frame, with IoUs to the frame before (IoU tracking only)
+	 */
+	public static class Frame {
+		public final int frame;
+		public final RleLabelMask mask;
+		public final DetectionTable detections;
+
+		// single cell labels (in raster order) and compound objects with their boxes
+		private Set<Integer> labels;
+		private Map<Integer, double[]> matingBoxes;
+		private Map<Integer, double[]> buddingBoxes;
+		private Map<Pair<Integer, Integer>, Double> ious;
+		private Map<Pair<Integer, Integer>, Double> matingIoUs;
+		private Map<Pair<Integer, Integer>, Double> buddingIoUs;
+		// distance tracking only
+		private Map<Integer, double[]> centroids;
+
+		private Frame(int frame, RleLabelMask mask, DetectionTable detections) {
+			this.frame = frame;
+			this.mask = mask;
+			this.detections = detections;
+		}
+	}
+
+	private final boolean byDistance;
+	private final double minOverlap;
+	private final double maxDistance;
+	private final int maxGap;
+
+	private final TrackStore tracks = new TrackStore();
+	private final TrackingWindow window;
+
+	// all frames (if kept) and the last one
+	private final List<Frame> frames;
+	private Frame last;
+
+	/**
+	 * @param byDistance match by centroid distance (up to maxDistance) instead of IoU (at least minOverlap)
+	 * @param maxGap     number of frames a single cell may be missing (0: only match to the frame before)
+	 * @param keepFrames keep all frames for {@link #retrack(double)}, otherwise tracks of frames before the window are dropped
+	 */
+	public Tracker(boolean byDistance, double minOverlap, double maxDistance, int maxGap, boolean keepFrames) {
+		this.byDistance = byDistance;
+		this.minOverlap = minOverlap;
+		this.maxDistance = maxDistance;
+		this.maxGap = maxGap;
+		this.window = maxGap > 0 ? new TrackingWindow( maxGap ) : null;
+		this.frames = keepFrames ? new ArrayList<>() : null;
+	}
+
+	public TrackStore getTracks() {
+		return tracks;
+	}
+
+	/**
+	 * track frame against the last tracked frame, frames must be tracked in increasing order
+	 */
+	public void track(int frame, RleLabelMask mask, DetectionTable detections) {
+		final Frame f = new Frame( frame, mask, detections );
+		f.labels = mask.getLabelSet();
+		f.matingBoxes = getCompoundBoxes( detections, 1 );
+		f.buddingBoxes = getCompoundBoxes( detections, 2 );
+		if (byDistance)
+			f.centroids = mask.getCentersOfMass();
+		else if (last != null)
+		{
+			f.ious = mask.getIoUs( last.mask );
+			f.matingIoUs = getBoxIoUs( f.matingBoxes, last.matingBoxes );
+			f.buddingIoUs = getBoxIoUs( f.buddingBoxes, last.buddingBoxes );
+		}
+		add( f );
+	}
+
+	/**
+	 * @return whether {@link #retrack(double)} is possible (all frames kept, IoU tracking)
+	 */
+	public boolean canRetrack() {
+		return frames != null && !byDistance;
+	}
+
+	/**
+	 * NB: only the IoUs to the frame before are cached, with maxGap &gt; 0 the cells left unmatched (which depend on the
+	 * minimum overlap) are intersected with the lost tracks of the window again, as in {@link TrackingWindow#closeGaps}
+	 *
+	 * @return tracking of all kept frames with another minimum overlap, from the cached IoU tables
+	 */
+	public Tracker retrack(double minOverlap) {
+		if (!canRetrack())
+			throw new IllegalStateException( "frames were not kept or tracking was by distance" );
+		final Tracker tracker = new Tracker( false, minOverlap, maxDistance, maxGap, true );
+		frames.forEach( tracker::add );
+		return tracker;
+	}
+
+	public int getNumberOfFrames() {
+		return frames == null ? 0 : frames.size();
+	}
+
+	public Frame getFrame(int i) {
+		return frames.get( i );
+	}
+
+	private void add(Frame f) {
+		final int frame = f.frame;
+
+		// match labels from last frame
+		Map<Integer, Integer> matchedLabels = new HashMap<>();
+		Map<Integer, Integer> matchBoxesMating = new HashMap<>();
+		Map<Integer, Integer> matchBoxesBudding = new HashMap<>();
+		if (last != null && byDistance)
+		{
+			// match labels and compound objects (via box centers) from last frame by minimizing centroid distance
+			// only pairs within max distance are candidates, which keeps the assignment problems small
+			matchedLabels = matchCentroids( f.centroids, last.centroids );
+			matchBoxesMating = matchCentroids( getBoxCenters( f.matingBoxes ), getBoxCenters( last.matingBoxes ) );
+			matchBoxesBudding = matchCentroids( getBoxCenters( f.buddingBoxes ), getBoxCenters( last.buddingBoxes ) );
+		}
+		else if (last != null)
+		{
+			// match labels from last frame by maximizing mask IoU
+			matchedLabels = LabelTools.matchLabelsMaximizeIoUSparse( f.ious, minOverlap );
+
+			// match compound objects via box overlap (mating and budding seperately)
+			matchBoxesMating = LabelTools.matchLabelsMaximizeIoUSparse( f.matingIoUs, minOverlap );
+			matchBoxesBudding = LabelTools.matchLabelsMaximizeIoUSparse( f.buddingIoUs, minOverlap );
+		}
+
+		// continue tracks of matched objects, start new tracks (numbered after all previous ones) for the others
+		// single cells first, then matings, then buddings
+		final int lastFrame = last == null ? -1 : last.frame;
+		final Map<Integer, Integer> singleTracks = getMatchedTracks( matchedLabels, lastFrame );
+
+		// cells not found in last frame may continue a single cell track that was lost in the frames before
+		if (window != null)
+		{
+			final Set<Integer> unmatched = new HashSet<>( f.labels );
+			unmatched.removeAll( singleTracks.keySet() );
+			if (!unmatched.isEmpty())
+				singleTracks.putAll( window.closeGaps( frame, f.mask, f.centroids, unmatched, tracks, byDistance, minOverlap, maxDistance ) );
+		}
+
+		assignTracks( frame, f.labels, singleTracks, 0 );
+		assignTracks( frame, f.matingBoxes.keySet(), getMatchedTracks( matchBoxesMating, lastFrame ), 1 );
+		assignTracks( frame, f.buddingBoxes.keySet(), getMatchedTracks( matchBoxesBudding, lastFrame ), 2 );
+
+		if (window != null)
+			window.add( frame, f.mask, f.centroids );
+
+		// link member cells to the mating/budding they take part in
+		final DetectionTable detections = f.detections;
+		for (int d = 0; d < detections.size(); d++)
+			for (int i = 1; i < detections.getNumberOfClasses( d ); i++)
+			{
+				final int compoundTrack = tracks.getTrack( frame, detections.getLink( d, i - 1 ) );
+				final int memberTrack = tracks.getTrack( frame, detections.getId( d ) );
+				if (compoundTrack != TrackStore.NO_TRACK && memberTrack != TrackStore.NO_TRACK)
+					tracks.addEvent( frame, compoundTrack, memberTrack, detections.getClass( d, i ) );
+			}
+
+		if (frames != null)
+			frames.add( f );
+		else
+			// the next frame only looks up tracks of this frame and the window before it
+			tracks.dropFramesBefore( frame - maxGap );
+		last = f;
+	}
+
+	/**
+	 * label -> track for labels matched to a label of lastFrame
+	 */
+	private Map<Integer, Integer> getMatchedTracks(Map<Integer, Integer> matches, int lastFrame) {
+		final Map<Integer, Integer> matchedTracks = new HashMap<>();
+		matches.forEach( (label, labelOld) -> {
+			final int track = tracks.getTrack( lastFrame, labelOld );
+			if (track != TrackStore.NO_TRACK)
+				matchedTracks.put( label, track );
+		} );
+		return matchedTracks;
+	}
+
+	private void assignTracks(int frame, Set<Integer> labels, Map<Integer, Integer> matchedTracks, int mainClass) {
+		for (Integer label : labels)
+		{
+			final Integer track = matchedTracks.get( label );
+			tracks.setTrack( frame, label, track != null ? track : tracks.newTrack( frame, mainClass ) );
+		}
+	}
+
+	/**
+	 * boxes (x1, y1, x2, y2) of compound objects of class 1 (mating) or 2 (budding), in detection order
+	 */
+	private static Map<Integer, double[]> getCompoundBoxes(DetectionTable detections, int classCode) {
+		final Map<Integer, double[]> boxes = new LinkedHashMap<>();
+		for (int d = 0; d < detections.size(); d++)
+		{
+			// NB: compound objects have only one class, so we only look at index 0
+			if (detections.getClass( d, 0 ) != classCode)
+				continue;
+			int x = (int) detections.getBox( d, 0 );
+			int y = (int) detections.getBox( d, 1 );
+			int w = (int) detections.getBox( d, 2 ) - x;
+			int h = (int) detections.getBox( d, 3 ) - y;
+			boxes.put( detections.getId( d ), new double[] { x, y, x + w, y + h } );
+		}
+		return boxes;
+	}
+
+	private Map<Integer, Integer> matchCentroids(Map<Integer, double[]> centroids1, Map<Integer, double[]> centroids2) {
+		Map<Pair<Integer, Integer>, Double> distances = LabelTools.getDistances( centroids1, centroids2, maxDistance );
+		return LabelTools.matchLabelsMinimizeDistanceSparse( distances, maxDistance );
+	}
+
+	private static Map<Integer, double[]> getBoxCenters(Map<Integer, double[]> boxes) {
+		final Map<Integer, double[]> centers = new HashMap<>();
+		boxes.forEach( (label, box) -> centers.put( label, new double[] { ( box[0] + box[2] ) / 2, ( box[1] + box[3] ) / 2 } ) );
+		return centers;
+	}
+
+	/**
+	 * IoUs of all overlapping pairs of boxes
+	 */
+	private static Map<Pair<Integer, Integer>, Double> getBoxIoUs(Map<Integer, double[]> boxes1, Map<Integer, double[]> boxes2) {
+		final Map<Pair<Integer, Integer>, Double> ious = new HashMap<>();
+		boxes1.forEach( (label1, box1) -> boxes2.forEach( (label2, box2) -> {
+			final double iou = getIoU( box1, box2 );
+			if (iou > 0)
+				ious.put( new ValuePair<>( label1, label2 ), iou );
+		} ) );
+		return ious;
+	}
+
+	private static double getIoU(double[] box1, double[] box2) {
+		// get IoU of x1, y1, x2, y2 boxes
+		double area1 = ( box1[2] - box1[0] ) * ( box1[3] - box1[1] );
+		double area2 = ( box2[2] - box2[0] ) * ( box2[3] - box2[1] );
+
+		double intersectMinX = Math.max( box1[0], box2[0] );
+		double intersectMinY = Math.max( box1[1], box2[1] );
+		double intersectMaxX = Math.min( box1[2], box2[2] );
+		double intersectMaxY = Math.min( box1[3], box2[3] );
+
+		double intersection = ( intersectMaxX > intersectMinX ? ( intersectMaxX - intersectMinX ) : 0 ) * ( intersectMaxY > intersectMinY ? ( intersectMaxY - intersectMinY ) : 0 );
+		return intersection / ( area1 + area2 - intersection );
+	}
+}
@@ -0,0 +1,109 @@
+package yeastmate;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import net.imglib2.util.Pair;
+import net.imglib2.util.ValuePair;
+
+/**
+ * compact features (RLE footprint, centroids) of the last frames of a timeseries, used to close tracking gaps:
+ * a single cell that was missed in up to maxGap frames can be linked to its track again instead of starting a new one
+ */
+public class TrackingWindow {
+
+	private static class FrameFeatures {
+		final int frame;
+		final RleLabelMask footprint;
+		final Map<Integer, double[]> centroids;
+
+		FrameFeatures(int frame, RleLabelMask footprint, Map<Integer, double[]> centroids) {
+			this.frame = frame;
+			this.footprint = footprint;
+			this.centroids = centroids;
+		}
+	}
+
+	private final int maxGap;
+	private final ArrayDeque<FrameFeatures> frames = new ArrayDeque<>();
+
+	/**
+	 * @param maxGap maximum number of consecutive frames a cell may be missing
+	 */
+	public TrackingWindow(int maxGap) {
+		this.maxGap = maxGap;
+	}
+
+	/**
+	 * remember features of frame (frames must be added in increasing order), frames that are too old are dropped
+	 */
+	public void add(int frame, RleLabelMask footprint, Map<Integer, double[]> centroids) {
+		frames.addLast( new FrameFeatures( frame, footprint, centroids ) );
+		while (frames.peekFirst().frame < frame - maxGap)
+			frames.pollFirst();
+	}
+
+	/**
+	 * link unmatched cells of frame to single cell tracks that were last seen in the window, but not in the frame before
+	 * all candidates of all window frames are solved in one assignment
+	 * (IoUs are only computed between the runs of the unmatched cells and of the lost tracks)
+	 *
+	 * @param unmatched  labels of frame not matched to the previous frame
+	 * @param byDistance match by centroid distance (up to maxDistance) instead of footprint IoU (at least minIoU)
+	 * @return label -> track
+	 */
+	public Map<Integer, Integer> closeGaps(int frame, RleLabelMask footprint, Map<Integer, double[]> centroids, Set<Integer> unmatched,
+			TrackStore tracks, boolean byDistance, double minIoU, double maxDistance) {
+
+		final Map<Pair<Integer, Integer>, Double> candidates = new HashMap<>();
+		RleLabelMask unmatchedFootprint = null;
+		for (FrameFeatures f : frames)
+		{
+			// only frames that are at least 2 frames back (the frame before was matched already)
+			if (f.frame >= frame - 1)
+				continue;
+
+			// tracks that ended in f, by their label in f
+			final Map<Integer, Integer> lostTracks = new HashMap<>();
+			for (Integer label : f.footprint.getLabelSet())
+			{
+				final int track = tracks.getTrack( f.frame, label );
+				if (track != TrackStore.NO_TRACK && tracks.getLastFrame( track ) == f.frame && tracks.getTrackClass( track ) == 0)
+					lostTracks.put( label, track );
+			}
+			if (lostTracks.isEmpty())
+				continue;
+
+			final Map<Pair<Integer, Integer>, Double> scores;
+			if (byDistance)
+			{
+				final Map<Integer, double[]> lostCentroids = new HashMap<>();
+				lostTracks.keySet().forEach( label -> lostCentroids.put( label, f.centroids.get( label ) ) );
+				final Map<Integer, double[]> unmatchedCentroids = new HashMap<>();
+				unmatched.forEach( label -> unmatchedCentroids.put( label, centroids.get( label ) ) );
+				scores = LabelTools.getDistances( unmatchedCentroids, lostCentroids, maxDistance );
+			}
+			else
+			{
+				if (unmatchedFootprint == null)
+					unmatchedFootprint = footprint.subset( unmatched );
+				scores = unmatchedFootprint.getIoUs( f.footprint.subset( lostTracks.keySet() ) );
+			}
+
+			// candidate pairs as (label in frame, track)
+			scores.forEach( (pair, score) -> {
+				final Integer track = lostTracks.get( pair.getB() );
+				if (track != null && unmatched.contains( pair.getA() ))
+					candidates.merge( new ValuePair<>( pair.getA(), track ), score, byDistance ? Math::min : Math::max );
+			} );
+		}
+
+		if (candidates.isEmpty())
+			return new HashMap<>();
+		return byDistance
+				? LabelTools.matchLabelsMinimizeDistanceSparse( candidates, maxDistance )
+				: LabelTools.matchLabelsMaximizeIoUSparse( candidates, minIoU );
+	}
+}
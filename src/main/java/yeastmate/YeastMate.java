@@ -1,32 +1,44 @@
 package yeastmate;
 
+import java.awt.Rectangle;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.lang.reflect.Field;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Base64;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
-import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.stream.StreamSupport;
+import java.util.WeakHashMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.zip.GZIPOutputStream;
 
 import org.apache.commons.math3.stat.descriptive.rank.Percentile;
-import org.apache.http.ParseException;
-import org.apache.http.client.methods.CloseableHttpResponse;
-import org.apache.http.client.methods.HttpPost;
+import org.apache.http.HttpEntity;
 import org.apache.http.entity.ContentType;
 import org.apache.http.entity.mime.MultipartEntityBuilder;
-import org.apache.http.impl.client.HttpClients;
-import org.apache.http.util.EntityUtils;
-import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.scijava.Cancelable;
 import org.scijava.app.StatusService;
 import org.scijava.command.Command;
 import org.scijava.command.Previewable;
@@ -34,22 +46,24 @@ import org.scijava.log.LogService;
 import org.scijava.plugin.Parameter;
 import org.scijava.plugin.Plugin;
 
+import ij.IJ;
 import ij.ImagePlus;
 import ij.ImageStack;
+import ij.WindowManager;
 import ij.gui.PolygonRoi;
 import ij.gui.Roi;
 import ij.gui.Wand;
 import ij.io.FileInfo;
 import ij.io.Opener;
 import ij.io.TiffEncoder;
-import ij.plugin.frame.RoiManager;
 import ij.process.ImageProcessor;
 import ij.process.LUT;
+import ij.process.FloatProcessor;
+import ij.process.ShortProcessor;
 import ij.process.StackStatistics;
 import net.imagej.ImageJ;
 import net.imagej.lut.LUTService;
 import net.imglib2.Cursor;
-import net.imglib2.RandomAccess;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.display.ColorTable;
 import net.imglib2.img.Img;
@@ -57,14 +71,45 @@ import net.imglib2.img.array.ArrayImgs;
 import net.imglib2.img.display.imagej.ImageJFunctions;
 import net.imglib2.type.numeric.RealType;
 import net.imglib2.type.numeric.real.FloatType;
-import net.imglib2.util.Pair;
 import net.imglib2.view.Views;
 
 @Plugin(type = Command.class, headless = true,
 	menuPath = "Plugins>YeastMate")
-public class YeastMate implements Command, Previewable {
+public class YeastMate implements Command, Previewable, Cancelable {
 	private static final String LABEL_LUT_NAME = "Fire.lut";
 	private static final String BOUNDARY_STRING = "__BOUNDARY__";
+	private static final long CANCEL_POLL_MS = 100;
+
+	// response of frames that reuse the detections of the frame before (compared by identity)
+	private static final JSONObject REUSE_PREVIOUS = new JSONObject();
+
+	// image properties of 16-bit fixed-point normalized images: value = pixel * scale + offset
+	static final String FIXED_POINT_SCALE = "yeastmate.fixedPointScale";
+	static final String FIXED_POINT_OFFSET = "yeastmate.fixedPointOffset";
+
+	private static final String TRACKING_IOU = "Mask overlap (IoU)";
+	private static final String TRACKING_DISTANCE = "Centroid distance";
+
+	private static final String ROI_OUTPUT_MANAGER = "ROI Manager";
+	private static final String ROI_OUTPUT_OVERLAY = "Overlay of image";
+	private static final String ROI_OUTPUT_ZIP = "ROI zip file";
+
+	private static final String UPLOAD_AUTO = "Automatic (smallest the server supports)";
+	private static final String UPLOAD_FLOAT = "32-bit float";
+	private static final String UPLOAD_FIXED_POINT = "16-bit fixed point (server must support it)";
+
+	// tracking of the last complete run per image, for re-tracking
+	private static final Map<ImagePlus, LastTracking> LAST_TRACKING = Collections.synchronizedMap(new WeakHashMap<>());
+
+	// per-frame buffers are recycled across frames and runs
+	static final BufferPool BUFFERS = new BufferPool(8);
+
+	private static final String IMAGES_CURRENT = "Current image";
+	private static final String IMAGES_ALL_OPEN = "All open images (e.g. positions of a series)";
+
+	private static final String LIVE_OFF = "Off";
+	private static final String LIVE_STACK = "Watch growing stack";
+	private static final String LIVE_DIRECTORY = "Watch directory for new files";
 
 	@Parameter
 	private LogService log;
@@ -78,6 +123,9 @@ public class YeastMate implements Command, Previewable {
 	@Parameter
 	private ImagePlus image;
 
+	@Parameter(label = "Images to process", choices = {IMAGES_CURRENT, IMAGES_ALL_OPEN})
+	private String imagesToProcess = IMAGES_CURRENT;
+
 	@Parameter(label = "Detection score threshold (single cells)", style = "slider", min = "0", max = "1", stepSize = "0.01")
 	private Double scoreThresholdSingle = 0.9;
 
@@ -93,15 +141,21 @@ public class YeastMate implements Command, Previewable {
 	@Parameter(label = "Maximum Intensity Quantile for Normalization", style = "slider", min = "0.005", max = "1", stepSize = "0.005")
 	private Double maxNormalizationQualtile = 0.985;
 
-	@Parameter(label = "Add single cell ROIs to ROI Manager?")
+	@Parameter(label = "Add single cell ROIs?")
 	private Boolean addSingleRois = false;
 
-	@Parameter(label = "Add mating ROIs to ROI Manager?")
+	@Parameter(label = "Add mating ROIs?")
 	private Boolean addMatingRois = true;
 
-	@Parameter(label = "Add budding ROIs to ROI Manager?")
+	@Parameter(label = "Add budding ROIs?")
 	private Boolean addBuddingRois = false;
 
+	@Parameter(label = "Add ROIs to", choices = {ROI_OUTPUT_MANAGER, ROI_OUTPUT_OVERLAY, ROI_OUTPUT_ZIP})
+	private String roiOutputMode = ROI_OUTPUT_MANAGER;
+
+	@Parameter(label = "ROI zip file (for zip output)", style = "save", required = false)
+	private File roiZipFile;
+
 	@Parameter(label = "Show segmentation mask?")
 	private Boolean showSegmentation = true;
 
@@ -110,20 +164,116 @@ public class YeastMate implements Command, Previewable {
 
 	@Parameter(label = "Process every frame in timeseries?")
 	private Boolean processEveryFrame = false;
+
+	@Parameter(label = "Reuse detections of the previous frame for repeated frames?")
+	private Boolean reuseDuplicateFrames = false;
+
+	@Parameter(label = "Also reuse for near-identical frames, up to mean difference (0 = identical only)", style = "slider", min = "0", max = "0.1", stepSize = "0.001")
+	private Double duplicateFrameTolerance = 0.0;
 	
+	@Parameter(label = "Tracking method", choices = {TRACKING_IOU, TRACKING_DISTANCE})
+	private String trackingMethod = TRACKING_IOU;
+
 	@Parameter(label = "Minimum Overlap for tracking in timeseries", style = "slider", min = "0.005", max = "1", stepSize = "0.005")
 	private Double minTrackingOverlap = 0.25;
 
+	@Parameter(label = "Maximum centroid distance for tracking (pixels)", min = "1")
+	private Double maxTrackingDistance = 20.0;
+
+	@Parameter(label = "Close tracking gaps of up to (frames, 0 = off)", min = "0", max = "10")
+	private Integer maxTrackingGap = 0;
+
+	@Parameter(label = "Downsampling factor for detection (1 = full resolution)", min = "1", max = "8")
+	private Integer downsamplingFactor = 1;
+
+	@Parameter(label = "Only detect in bounding box of selection?")
+	private Boolean cropToSelection = false;
+
+	@Parameter(label = "Margin around selection (pixels)", min = "0")
+	private Integer selectionMargin = 32;
+
 	// add ROIs as outlines or boxes?
 	private static Boolean addOutlineRois = true;
 
-	@Parameter(label = "IP adress of detection server", style = "server-status")
+	@Parameter(label = "Upload precision of normalized image", choices = {UPLOAD_AUTO, UPLOAD_FLOAT, UPLOAD_FIXED_POINT})
+	private String uploadPrecision = UPLOAD_AUTO;
+
+	@Parameter(label = "IP adress of detection server(s), comma-separated", style = "server-status")
 	private String ipAdress = "127.0.0.1:11005";
 
+	@Parameter(label = "Request timeout (seconds)", min = "1")
+	private Integer requestTimeout = 120;
+
+	@Parameter(label = "Requests in flight per server (0 = adapt automatically)", min = "0", max = "16")
+	private Integer requestsInFlight = 0;
+
+	@Parameter(label = "Retries per frame", min = "0", max = "10")
+	private Integer maxRetries = 2;
+
+	@Parameter(label = "Hedge requests slower than latency quantile (0 = off)", style = "slider", min = "0", max = "1", stepSize = "0.01")
+	private Double hedgingQuantile = 0.0;
+
+	@Parameter(label = "Live mode: detect frames as they arrive", choices = { LIVE_OFF, LIVE_STACK, LIVE_DIRECTORY })
+	private String liveMode = LIVE_OFF;
+
+	@Parameter(label = "Directory of incoming frames (live mode)", style = "directory", required = false)
+	private File liveDirectory;
+
+	@Parameter(label = "Stop live mode if no new frame arrives for (seconds)", min = "1")
+	private Integer liveIdleTimeout = 600;
+
+	@Parameter(label = "Save results to (optional, " + ResultFile.EXTENSION + ")", style = "save", required = false)
+	private File resultFile;
+
+	@Parameter(label = "Export per-stage timings to (optional, .csv or .json)", style = "save", required = false)
+	private File metricsFile;
+
+	// timings and byte counts of the current run
+	private DetectionMetrics metrics;
+
+	// state of current run, needed for cancellation
+	private volatile boolean canceled;
+	private String cancelReason;
+	private int framesProcessed;
+	private int framesReused;
+	// fingerprint and index of the last frame that was sent for detection
+	private FrameFingerprint referenceFingerprint;
+	private int referenceFrame;
+	private RemoteDetectionClient client;
+	private ExecutorService requestExecutor;
+	private ResultFile.Writer resultWriter;
+	private Tracker tracker;
+	// ROI position of every frame, for re-tracking (null if frames are not kept)
+	private Map<Integer, RoiPosition> roiPositions;
+
+	// region of the image that is detected (selection bounds + margin), null for the whole image
+	private Rectangle crop;
+
+	// transport chosen from the capabilities of the server(s) at the start of a run
+	private ServerCapabilities capabilities = ServerCapabilities.DEFAULT;
+	private boolean uploadFixedPoint;
+	private boolean gzipRequests;
+	// normalized frames that may be held in memory at a time, shared by the runs of all open images
+	private Semaphore frameBuffers;
+	// per-image runs when detecting all open images, and the run they belong to
+	private volatile List<YeastMate> childRuns;
+	private YeastMate parent;
 
 	@Override
 	public void run() {
 
+		if (DetectionBackends.parseAddresses(ipAdress).isEmpty())
+		{
+			log.error("YeastMate: please enter the address (host:port) of at least one detection server.");
+			return;
+		}
+
+		if (IMAGES_ALL_OPEN.equals(imagesToProcess))
+		{
+			detectOpenImages();
+			return;
+		}
+
 		// RGB would require different quantile calc -> we do not support it a.t.m.
 		if ( image.getFileInfo().fileType == FileInfo.RGB )
 		{
@@ -131,7 +281,13 @@ public class YeastMate implements Command, Previewable {
 			return;
 		}
 
-		if (processEveryFrame && image.getNFrames() == 1)
+		if (LIVE_DIRECTORY.equals(liveMode) && (liveDirectory == null || !liveDirectory.isDirectory()))
+		{
+			log.error("Live mode: please select an existing directory to watch for incoming frames.");
+			return;
+		}
+
+		if (processEveryFrame && image.getNFrames() == 1 && LIVE_OFF.equals(liveMode))
 		{
 			log.warn("Timeseries detection was selected but input does not have multiple frames. Will only process currently selected image.");
 		}
@@ -139,20 +295,34 @@ public class YeastMate implements Command, Previewable {
 		detect();
 	}
 
-	private static JSONObject runRemoteDetection(ImagePlus normalizedImage, String ipAdress, double scoreThresholdSingle, double scoreThresholdMating, double scoreThresholdBudding )
+	static JSONObject runRemoteDetection(ImagePlus normalizedImage, RemoteDetectionClient client, double scoreThresholdSingle, double scoreThresholdMating, double scoreThresholdBudding, DetectionMetrics metrics, int frame )
+	{
+		return runRemoteDetection( normalizedImage, client, scoreThresholdSingle, scoreThresholdMating, scoreThresholdBudding, metrics, frame, false );
+	}
+
+	/**
+	 * @param gzip send request body gzip-compressed (server must support it)
+	 */
+	static JSONObject runRemoteDetection(ImagePlus normalizedImage, RemoteDetectionClient client, double scoreThresholdSingle, double scoreThresholdMating, double scoreThresholdBudding, DetectionMetrics metrics, int frame, boolean gzip )
 	{
-		ByteArrayOutputStream imageBytes = new ByteArrayOutputStream();
+		long start = System.nanoTime();
 		ByteArrayOutputStream jsonBytes = new ByteArrayOutputStream();
 
 		// write parameters as JSON bytes
+		// fixed-point images additionally tell the server how to get back the normalized values
 		PrintWriter pw = new PrintWriter(jsonBytes);
-		pw.write("{\"0\":"+scoreThresholdSingle+",\"1\":" +scoreThresholdMating+",\"2\":"+scoreThresholdBudding+"}");
+		pw.write("{\"0\":"+scoreThresholdSingle+",\"1\":" +scoreThresholdMating+",\"2\":"+scoreThresholdBudding);
+		if (normalizedImage.getProperty(FIXED_POINT_SCALE) != null)
+			pw.write(",\"scale\":"+normalizedImage.getProperty(FIXED_POINT_SCALE)+",\"offset\":"+normalizedImage.getProperty(FIXED_POINT_OFFSET));
+		pw.write("}");
 		pw.close();
 
-		// write normalized image as tiff to bytes
-		try {new TiffEncoder( normalizedImage.getFileInfo() ).write( imageBytes );}
+		// write normalized image as tiff to (pooled) bytes
+		BufferPool.Bytes imageBytes = BUFFERS.bytes();
+		try {encodeTiff( normalizedImage, imageBytes );}
 		catch (IOException e) {
 			e.printStackTrace();
+			BUFFERS.release(imageBytes);
 			return null;
 		}
 
@@ -160,37 +330,54 @@ public class YeastMate implements Command, Previewable {
 		MultipartEntityBuilder multipartBuilder = MultipartEntityBuilder.create();
 		multipartBuilder.setContentType(ContentType.MULTIPART_FORM_DATA);
 		multipartBuilder.setBoundary(BOUNDARY_STRING);
-		multipartBuilder.addBinaryBody("image", imageBytes.toByteArray(), ContentType.IMAGE_TIFF, "image.tiff");
+		multipartBuilder.addPart("image", imageBytes.asContentBody(ContentType.IMAGE_TIFF, "image.tiff"));
 		multipartBuilder.addBinaryBody( "annotations", jsonBytes.toByteArray(), ContentType.APPLICATION_JSON, "annotations.json");
 
-		HttpPost conn = new HttpPost("http://" + ipAdress + "/predict");
-		conn.setEntity(multipartBuilder.build());
+		HttpEntity entity = multipartBuilder.build();
 
-		// get response as JSON
-		CloseableHttpResponse response = null;
-		try {
-			response = HttpClients.createDefault().execute(conn);
-		} catch (IOException e) {
-			e.printStackTrace();
+		// compress once (instead of on every retry), into another pooled buffer
+		BufferPool.Bytes compressedBytes = null;
+		if (gzip)
+		{
+			compressedBytes = BUFFERS.bytes();
+			try (GZIPOutputStream out = new GZIPOutputStream(compressedBytes)) {
+				entity.writeTo(out);
+			}
+			catch (IOException e) {
+				e.printStackTrace();
+				BUFFERS.release(imageBytes);
+				BUFFERS.release(compressedBytes);
+				return null;
+			}
+			entity = compressedBytes.asEntity(entity.getContentType().getValue(), ServerCapabilities.COMPRESSION_GZIP);
 		}
+		metrics.addTime(frame, DetectionMetrics.Stage.ENCODING, System.nanoTime() - start);
 
-		JSONObject result;
+		// get response as JSON (with timeouts, retries and optional hedging)
+		// NB: all requests using the body are finished or aborted once predict returns
 		try {
-			result = new JSONObject(EntityUtils.toString( response.getEntity() ));
-		} catch (ParseException | JSONException | IOException e) {
-			e.printStackTrace();
-			return null;
+			return client.predict(entity, metrics, frame);
 		}
-
-		try {response.close();}
-		catch (IOException e) {
-			e.printStackTrace();
+		finally {
+			BUFFERS.release(imageBytes);
+			if (compressedBytes != null)
+				BUFFERS.release(compressedBytes);
 		}
+	}
+
+	static byte[] encodeTiff(ImagePlus image) throws IOException
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		encodeTiff( image, bytes );
+		return bytes.toByteArray();
+	}
 
-		return result;
+	static void encodeTiff(ImagePlus image, OutputStream out) throws IOException
+	{
+		new TiffEncoder( image.getFileInfo() ).write( out );
 	}
 
-	private static ImagePlus parseMaskFromResult(JSONObject result, String title)
+	static ImagePlus parseMaskFromResult(JSONObject result, String title)
 	{
 		// mask is returned as base64-encoded 16-bit TIFF
 		ImagePlus mask;
@@ -206,7 +393,39 @@ public class YeastMate implements Command, Previewable {
 		return mask;
 	}
 
-	private static <T extends RealType<T>> ImagePlus getNormalizedImagePlus(ImagePlus image, double minNormalizationQuantile, double maxNormalizationQualtile) {
+	static <T extends RealType<T>> ImagePlus getNormalizedImagePlus(ImagePlus image, double minNormalizationQuantile, double maxNormalizationQualtile, int downsamplingFactor) {
+		return getNormalizedImagePlus( image, minNormalizationQuantile, maxNormalizationQualtile, downsamplingFactor, false );
+	}
+
+	static <T extends RealType<T>> ImagePlus getNormalizedImagePlus(ImagePlus image, double minNormalizationQuantile, double maxNormalizationQualtile, int downsamplingFactor, boolean fixedPoint) {
+		return getNormalizedImagePlus( image, minNormalizationQuantile, maxNormalizationQualtile, downsamplingFactor, fixedPoint, null );
+	}
+
+	/**
+	 * quantile-normalize the currently displayed plane of image
+	 * 
+	 * @param fixedPoint return 16-bit image, with scale and offset to get back normalized values
+	 *                   in properties {@link #FIXED_POINT_SCALE} and {@link #FIXED_POINT_OFFSET}
+	 * @param crop       only normalize (and return) this region of the plane, null for the whole plane
+	 * @return normalized image, pixel buffer can be given back via {@link #releaseNormalizedImagePlus(ImagePlus)}
+	 */
+	static <T extends RealType<T>> ImagePlus getNormalizedImagePlus(ImagePlus image, double minNormalizationQuantile, double maxNormalizationQualtile, int downsamplingFactor, boolean fixedPoint, Rectangle crop) {
+		// full resolution: work on the pixel array of the currently displayed plane directly
+		if (downsamplingFactor == 1)
+		{
+			final int index = image.getStackIndex( image.getChannel(), image.getSlice(), image.getFrame() );
+			final Object plane = image.getStack().getPixels( index );
+			if (plane instanceof short[] || plane instanceof byte[] || plane instanceof float[])
+			{
+				if (crop == null)
+					return getNormalizedImagePlus( plane, image.getWidth(), image.getHeight(), image, minNormalizationQuantile, maxNormalizationQualtile, fixedPoint );
+				// copy of the cropped region only
+				final ImageProcessor processor = image.getStack().getProcessor( index );
+				processor.setRoi( crop );
+				return getNormalizedImagePlus( processor.crop().getPixels(), crop.width, crop.height, image, minNormalizationQuantile, maxNormalizationQualtile, fixedPoint );
+			}
+		}
+
 		// get only currently displayed image as imglib2 RAI
 		RandomAccessibleInterval<T> img = ImageJFunctions.wrapReal( image );
 		if (image.getNChannels() > 1)
@@ -215,171 +434,947 @@ public class YeastMate implements Command, Previewable {
 			img = Views.hyperSlice( img, 2, image.getSlice() - 1 );
 		if (image.getNFrames() > 1)
 			img = Views.hyperSlice( img, 2, image.getFrame() - 1 );
+		if (crop != null)
+			img = Views.interval( img, new long[] { crop.x, crop.y }, new long[] { crop.x + crop.width - 1, crop.y + crop.height - 1 } );
+
+		// optionally bin image before normalization -> smaller upload, faster inference
+		if (downsamplingFactor > 1)
+			return getNormalizedImagePlus( downsample( img, downsamplingFactor ), image, minNormalizationQuantile, maxNormalizationQualtile, fixedPoint );
+		return getNormalizedImagePlus( img, image, minNormalizationQuantile, maxNormalizationQualtile, fixedPoint );
+	}
+
+	private static <T extends RealType<T>> ImagePlus getNormalizedImagePlus(RandomAccessibleInterval<T> img, ImagePlus image, double minNormalizationQuantile, double maxNormalizationQualtile, boolean fixedPoint) {
+
+		final int width = (int) img.dimension( 0 );
+		final int height = (int) img.dimension( 1 );
+		final int n = width * height;
+
+		// get pixels as (pooled) double array, in raster order
+		final double[] pixels = BUFFERS.doubles( n );
+		Cursor< T > cursorSource = Views.flatIterable( img ).cursor();
+		for (int i = 0; i < n; i++)
+			pixels[i] = cursorSource.next().getRealDouble();
+
+		return getNormalizedImagePlus( pixels, null, width, height, image, minNormalizationQuantile, maxNormalizationQualtile, fixedPoint );
+	}
+
+	private static ImagePlus getNormalizedImagePlus(Object plane, int width, int height, ImagePlus image, double minNormalizationQuantile, double maxNormalizationQualtile, boolean fixedPoint) {
+		final int n = width * height;
+		final double[] pixels = BUFFERS.doubles( n );
+		PixelKernels.toDoubles( plane, pixels, n );
+		// integer images: quantiles from histogram
+		return getNormalizedImagePlus( pixels, PixelKernels.histogram( plane, n ), width, height, image, minNormalizationQuantile, maxNormalizationQualtile, fixedPoint );
+	}
 
-		// get pixels as double array
-		final double[] pixels = StreamSupport.stream( Views.iterable( img ).spliterator(), false ).mapToDouble( v -> v.getRealDouble() ).toArray();
+	/**
+	 * @param pixels    pooled pixel values, released here
+	 * @param histogram histogram of pixels (for integer images) or null
+	 */
+	private static ImagePlus getNormalizedImagePlus(double[] pixels, int[] histogram, int width, int height, ImagePlus image, double minNormalizationQuantile, double maxNormalizationQualtile, boolean fixedPoint) {
+		final int n = width * height;
+		final double[] minMax = PixelKernels.minMax( pixels, n );
+		final double min = minMax[0];
+		final double max = minMax[1];
 
 		// get quantiles
-		final Percentile percentileCalculator = new Percentile();
-		final double minPerc = minNormalizationQuantile == 0.0 ? image.getProcessor().getMin() : percentileCalculator.evaluate( pixels, minNormalizationQuantile * 100 );
-		final double maxPerc = percentileCalculator.evaluate( pixels, maxNormalizationQualtile * 100 );
+		final double minPerc;
+		final double maxPerc;
+		if (histogram != null)
+		{
+			minPerc = minNormalizationQuantile == 0.0 ? image.getProcessor().getMin() : PixelKernels.percentile( histogram, n, minNormalizationQuantile * 100 );
+			maxPerc = PixelKernels.percentile( histogram, n, maxNormalizationQualtile * 100 );
+		}
+		else
+		{
+			// NB: with setData, both quantiles are selected from one copy of the pixels, re-using its pivots
+			final Percentile percentileCalculator = new Percentile();
+			percentileCalculator.setData( pixels );
+			minPerc = minNormalizationQuantile == 0.0 ? image.getProcessor().getMin() : percentileCalculator.evaluate( minNormalizationQuantile * 100 );
+			maxPerc = percentileCalculator.evaluate( maxNormalizationQualtile * 100 );
+		}
+		final double range = maxPerc - minPerc;
 
 		// make quantile-normalized copy of img
-		RandomAccessibleInterval< FloatType > normalizedImg = ArrayImgs.floats( img.dimensionsAsLongArray() );
-		RandomAccess< FloatType > raNormalized = normalizedImg.randomAccess();
-		Cursor< T > cursorSource = Views.iterable( img ).cursor();
-		while(cursorSource.hasNext())
-		{
-			cursorSource.fwd();
-			raNormalized.setPosition( cursorSource );
-			float x = (float) ( (cursorSource.get().getRealFloat() - minPerc) / (maxPerc-minPerc) );
-			// TODO: clip to 0-1?
-			raNormalized.get().set( x );
-		}
-		ImagePlus normalizedIP = ImageJFunctions.wrap( normalizedImg, "normalized " + image.getTitle());
+		// TODO: clip to 0-1?
+		final ImagePlus normalizedIP;
+		if (fixedPoint)
+		{
+			final short[] normalized = BUFFERS.shorts( n );
+			final double offset;
+			final double scale;
+			if (range > 0)
+			{
+				// spread the normalized value range of this frame over 0-65535
+				offset = ( min - minPerc ) / range;
+				scale = max > min ? ( max - min ) / range / 65535 : 1.0;
+				PixelKernels.normalizeFixedPoint( pixels, normalized, n, minPerc, range, offset, scale );
+			}
+			else
+			{
+				// both quantiles equal (e.g. a blank frame): no range to normalize by, send zeros
+				offset = 0.0;
+				scale = 1.0;
+				Arrays.fill( normalized, 0, n, (short) 0 );
+			}
+			normalizedIP = new ImagePlus( "normalized " + image.getTitle(), new ShortProcessor( width, height, normalized, null ) );
+			normalizedIP.setProperty( FIXED_POINT_SCALE, scale );
+			normalizedIP.setProperty( FIXED_POINT_OFFSET, offset );
+		}
+		else
+		{
+			final float[] normalized = BUFFERS.floats( n );
+			PixelKernels.normalize( pixels, normalized, n, minPerc, range );
+			normalizedIP = new ImagePlus( "normalized " + image.getTitle(), new FloatProcessor( width, height, normalized, null ) );
+		}
+
+		BUFFERS.release( pixels );
 		return normalizedIP;
 	}
 
+	/**
+	 * give pixel buffer of an image from {@link #getNormalizedImagePlus} back to the pool, image must not be used afterwards
+	 */
+	static void releaseNormalizedImagePlus(ImagePlus normalizedIP) {
+		final Object pixels = normalizedIP.getProcessor().getPixels();
+		if (pixels instanceof float[])
+			BUFFERS.release( (float[]) pixels );
+		else if (pixels instanceof short[])
+			BUFFERS.release( (short[]) pixels );
+	}
+
+	/**
+	 * downsample a 2D image by averaging factor x factor blocks
+	 * (incomplete blocks at the right and bottom border are averaged over the pixels they contain)
+	 * 
+	 * @param img      2D input image
+	 * @param factor   integer binning factor
+	 * @return binned image of size ceil(dimension / factor)
+	 */
+	private static <T extends RealType<T>> RandomAccessibleInterval<FloatType> downsample(RandomAccessibleInterval<T> img, int factor) {
+		final int widthSmall = (int) ( img.dimension( 0 ) + factor - 1 ) / factor;
+		final int heightSmall = (int) ( img.dimension( 1 ) + factor - 1 ) / factor;
+		final float[] sums = new float[widthSmall * heightSmall];
+		final int[] counts = new int[widthSmall * heightSmall];
+
+		Cursor< T > cursor = Views.iterable( img ).localizingCursor();
+		while (cursor.hasNext())
+		{
+			cursor.fwd();
+			final int x = (int) ( cursor.getLongPosition( 0 ) - img.min( 0 ) ) / factor;
+			final int y = (int) ( cursor.getLongPosition( 1 ) - img.min( 1 ) ) / factor;
+			sums[y * widthSmall + x] += cursor.get().getRealFloat();
+			counts[y * widthSmall + x]++;
+		}
+		for (int i = 0; i < sums.length; i++)
+			sums[i] /= counts[i];
+
+		return ArrayImgs.floats( sums, widthSmall, heightSmall );
+	}
+
+	/**
+	 * nearest-neighbor upscaling of a (downsampled) 16-bit label mask back to original image geometry
+	 */
+	private static ImagePlus upscaleMask(ImagePlus mask, int factor, int width, int height) {
+		final short[] pixelsSmall = (short[]) mask.getProcessor().getPixels();
+		final int widthSmall = mask.getWidth();
+		final short[] pixels = new short[width * height];
+		for (int y = 0; y < height; y++)
+		{
+			final int offsetSmall = ( y / factor ) * widthSmall;
+			for (int x = 0; x < width; x++)
+				pixels[y * width + x] = pixelsSmall[offsetSmall + x / factor];
+		}
+		return new ImagePlus( mask.getTitle(), new ShortProcessor( width, height, pixels, null ) );
+	}
+
+	/**
+	 * place mask of a cropped region into an empty mask of the whole image
+	 */
+	private static ImagePlus uncropMask(ImagePlus mask, Rectangle crop, int width, int height) {
+		final ShortProcessor processor = new ShortProcessor( width, height );
+		processor.insert( mask.getProcessor(), crop.x, crop.y );
+		return new ImagePlus( mask.getTitle(), processor );
+	}
+
 	public <T extends RealType<T>> void detect() {
 	
-		statusService.showStatus( 0, 3, "Preparing Request to Backend" );
+		statusService.showStatus( "YeastMate: Preparing Request to Backend" );
+
+		canceled = false;
+		cancelReason = null;
+		IJ.resetEscape();
+
+		final boolean live = !LIVE_OFF.equals(liveMode);
+
+		// we always work with list of frames, even if just processing current frame
+		final int nFrames = processEveryFrame ? image.getNFrames() : 1;
+
+		// dispatch frames to least-loaded detection server(s)
+		DetectionBackends backends = new DetectionBackends(ipAdress);
+		if (backends.checkHealth() == 0)
+			log.warn("YeastMate: no healthy detection server at " + ipAdress);
+
+		negotiateTransport(backends);
+		final AdaptiveConcurrencyLimit concurrencyLimit = createConcurrencyLimit(backends);
+		client = new RemoteDetectionClient(backends, concurrencyLimit, log, requestTimeout * 1000, maxRetries, hedgingQuantile);
+		requestExecutor = Executors.newFixedThreadPool(live ? 1 : Math.min(concurrencyLimit.getMaxLimit(), nFrames));
+		frameBuffers = new Semaphore(2 * concurrencyLimit.getMaxLimit());
+
+		try {
+			detectImage(concurrencyLimit.getMaxLimit());
+		}
+		finally {
+			requestExecutor.shutdownNow();
+			client.close();
+		}
+		if (!live)
+			log.info(concurrencyLimit.summary());
+	
+		statusService.clearStatus();
+		statusService.showStatus( "YeastMate: Done" );
+	}
 
-		// get normalized images
-		// we always work with list, even if just processing current frame
-		List<ImagePlus> normalizedIPs = new ArrayList<>();
-		if (!processEveryFrame || image.getNFrames() == 1)
+	/**
+	 * detect all open images concurrently, each with the same outputs as a single-image run
+	 * (own mask, ROIs and tracking; result, metrics and ROI zip files get the image title appended)
+	 * 
+	 * the images share one detection client and request queue, so the servers are kept busy
+	 * while frames of one image are normalized, tracked or written
+	 */
+	public void detectOpenImages() {
+
+		canceled = false;
+		cancelReason = null;
+		IJ.resetEscape();
+
+		if (!LIVE_OFF.equals(liveMode))
+			log.warn("YeastMate: live mode is only possible for the current image, processing open images as they are.");
+
+		final List<YeastMate> runs = new ArrayList<>();
+		int nFrames = 0;
+		for (int id : WindowManager.getIDList() == null ? new int[0] : WindowManager.getIDList())
 		{
-			ImagePlus normalizedIP = getNormalizedImagePlus(image, minNormalizationQualtile, maxNormalizationQualtile);
-			normalizedIPs.add(normalizedIP);
-		} else {
-			for (int i = 0; i < image.getNFrames(); i++) {
-				image.setT(i+1);
-				ImagePlus normalizedIP = getNormalizedImagePlus(image, minNormalizationQualtile, maxNormalizationQualtile);
-				normalizedIPs.add(normalizedIP);
+			final ImagePlus imp = WindowManager.getImage(id);
+			// NB: masks of previous runs are open images as well
+			if (imp == null || imp.getTitle().startsWith("segmentation of "))
+				continue;
+			if (imp.getFileInfo().fileType == FileInfo.RGB)
+			{
+				log.warn("YeastMate: skipping RGB image " + imp.getTitle());
+				continue;
+			}
+			final YeastMate run = copyFor(imp);
+			if (run != null)
+			{
+				runs.add(run);
+				nFrames += processEveryFrame ? imp.getNFrames() : 1;
 			}
 		}
+		if (runs.isEmpty())
+		{
+			log.warn("YeastMate: no open images to process.");
+			return;
+		}
 
-		try{
-			statusService.showStatus( 1, 3, "Getting Results from Backend" );
-			
-			List<JSONObject> responses = new ArrayList<>();
-			for (ImagePlus normalizedIP : normalizedIPs) {
-				JSONObject result = runRemoteDetection(normalizedIP, ipAdress, scoreThresholdSingle, scoreThresholdMating, scoreThresholdBudding);
-				responses.add(result);
+		DetectionBackends backends = new DetectionBackends(ipAdress);
+		if (backends.checkHealth() == 0)
+			log.warn("YeastMate: no healthy detection server at " + ipAdress);
+		negotiateTransport(backends);
+		final AdaptiveConcurrencyLimit concurrencyLimit = createConcurrencyLimit(backends);
+		final int maxInFlight = concurrencyLimit.getMaxLimit();
+
+		client = new RemoteDetectionClient(backends, concurrencyLimit, log, requestTimeout * 1000, maxRetries, hedgingQuantile);
+		requestExecutor = Executors.newFixedThreadPool(Math.min(maxInFlight, nFrames));
+		// NB: normalized frames waiting for their request are bounded across all images, not per image
+		frameBuffers = new Semaphore(2 * maxInFlight);
+		childRuns = runs;
+
+		// as many images at a time as requests can be in flight, more could not keep the servers any busier
+		final ExecutorService imageExecutor = Executors.newFixedThreadPool(Math.min(maxInFlight, runs.size()));
+		final List<Future<?>> futures = new ArrayList<>();
+		for (YeastMate run : runs)
+		{
+			run.parent = this;
+			run.client = client;
+			run.requestExecutor = requestExecutor;
+			run.frameBuffers = frameBuffers;
+			run.capabilities = capabilities;
+			run.uploadFixedPoint = uploadFixedPoint;
+			run.gzipRequests = gzipRequests;
+			futures.add(imageExecutor.submit(() -> run.detectImage(maxInFlight)));
+		}
+
+		try {
+			for (int i = 0; i < futures.size(); i++)
+			{
+				// child runs only stop themselves on cancel, this run shuts down what they share
+				while (!futures.get(i).isDone() && !checkCanceled())
+				{
+					try {
+						futures.get(i).get(CANCEL_POLL_MS, TimeUnit.MILLISECONDS);
+					} catch (TimeoutException | ExecutionException e) {
+						continue;
+					}
+				}
+				try {
+					if (!canceled)
+						futures.get(i).get();
+				} catch (ExecutionException e) {
+					log.error("YeastMate: detection failed for " + runs.get(i).image.getTitle(), e.getCause());
+				}
+				statusService.showProgress(i + 1, futures.size());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			cancelRun();
+		}
+		finally {
+			imageExecutor.shutdownNow();
+			requestExecutor.shutdownNow();
+			client.close();
+			childRuns = null;
+		}
+		log.info(concurrencyLimit.summary());
+
+		statusService.clearStatus();
+		statusService.showStatus( "YeastMate: Done (" + runs.size() + " images)" );
+	}
+
+	/**
+	 * pick the smallest upload the server(s) support, falling back to 32-bit float TIFF for servers that do not announce capabilities
+	 * (gzip is only worth its CPU time if the servers are not on this machine)
+	 */
+	private void negotiateTransport(DetectionBackends backends) {
+		capabilities = ServerCapabilities.of(backends);
+		if (UPLOAD_AUTO.equals(uploadPrecision))
+			uploadFixedPoint = capabilities.supportsInputEncoding(ServerCapabilities.INPUT_FIXED_POINT);
+		else
+			uploadFixedPoint = UPLOAD_FIXED_POINT.equals(uploadPrecision);
+		gzipRequests = capabilities.supportsRequestCompression(ServerCapabilities.COMPRESSION_GZIP) && !backends.isLocal();
+
+		if (!capabilities.supportsMaskEncoding(ServerCapabilities.MASK_TIFF))
+			log.warn("YeastMate: server(s) do not announce TIFF masks, results may not be readable");
+		log.info("YeastMate: server capabilities: " + capabilities + "; uploading " + (uploadFixedPoint ? "16-bit fixed point" : "32-bit float")
+				+ (gzipRequests ? ", gzip-compressed" : ""));
+	}
+
+	/**
+	 * limit of requests in flight: fixed per healthy server, or adapted while running starting from the default
+	 */
+	private AdaptiveConcurrencyLimit createConcurrencyLimit(DetectionBackends backends) {
+		final int nServers = Math.max(1, backends.getNumberOfHealthyBackends());
+		if (requestsInFlight > 0)
+			return AdaptiveConcurrencyLimit.fixed(nServers * requestsInFlight);
+		return new AdaptiveConcurrencyLimit(backends.getMaxInFlight(), nServers * AdaptiveConcurrencyLimit.MAX_PER_BACKEND);
+	}
+
+	/**
+	 * copy of this command (same parameters and services) working on another image
+	 * 
+	 * @return copy or null if parameters could not be copied
+	 */
+	private YeastMate copyFor(ImagePlus imp) {
+		final YeastMate copy = new YeastMate();
+		try {
+			for (Field field : YeastMate.class.getDeclaredFields())
+				if (field.isAnnotationPresent(Parameter.class))
+					field.set(copy, field.get(this));
+		} catch (IllegalAccessException e) {
+			e.printStackTrace();
+			return null;
+		}
+		copy.image = imp;
+		copy.liveMode = LIVE_OFF;
+		copy.resultFile = appendTitle(resultFile, imp);
+		copy.metricsFile = appendTitle(metricsFile, imp);
+		copy.roiZipFile = appendTitle(roiZipFile, imp);
+		return copy;
+	}
+
+	/**
+	 * name.ext -> name_title.ext
+	 */
+	private static File appendTitle(File file, ImagePlus imp) {
+		if (file == null)
+			return null;
+		final String title = imp.getShortTitle().replaceAll("[^\\w.-]", "_");
+		final String name = file.getName();
+		final int dot = name.lastIndexOf('.');
+		return new File(file.getParentFile(), dot < 0 ? name + "_" + title : name.substring(0, dot) + "_" + title + name.substring(dot));
+	}
+
+	/**
+	 * run detection on image, using client and requestExecutor (which stay open)
+	 */
+	private void detectImage(int maxInFlight) {
+
+		framesProcessed = 0;
+		framesReused = 0;
+		referenceFingerprint = null;
+		final boolean live = !LIVE_OFF.equals(liveMode);
+
+		// NB: live acquisitions can be arbitrarily long, so their frames are not kept for re-tracking
+		// and their metrics and tracks only hold totals and the frames of the tracking window
+		metrics = new DetectionMetrics(!live);
+		tracker = new Tracker(TRACKING_DISTANCE.equals(trackingMethod), minTrackingOverlap, maxTrackingDistance, maxTrackingGap, !live);
+		roiPositions = tracker.canRetrack() ? new HashMap<>() : null;
+		final int nFrames = processEveryFrame ? image.getNFrames() : 1;
+		crop = getCrop();
+
+		// servers that announce a maximum image size get frames downsampled to fit
+		// NB: frames from a directory are only known once they arrive, they are sent as they are
+		if (!LIVE_DIRECTORY.equals(liveMode))
+		{
+			final int neededFactor = (int) Math.ceil((double) Math.max(crop != null ? crop.width : image.getWidth(), crop != null ? crop.height : image.getHeight()) / capabilities.getMaxImageSize());
+			if (neededFactor > downsamplingFactor)
+			{
+				log.warn("YeastMate: server accepts images up to " + capabilities.getMaxImageSize() + " pixels, downsampling " + image.getTitle() + " by " + neededFactor);
+				downsamplingFactor = neededFactor;
+			}
+		}
+
+		RoiOutput rois = createRoiOutput();
+
+		resultWriter = null;
+		if (resultFile != null)
+		{
+			try {resultWriter = new ResultFile.Writer(resultFile);}
+			catch (IOException e) {
+				log.error("YeastMate: could not create result file " + resultFile, e);
 			}
+		}
 
-			RoiManager manager = RoiManager.getInstance();
-			if (manager == null && (addSingleRois || addMatingRois || addBuddingRois )){
-				manager = new RoiManager();
+		metrics.registerMXBean(image.getTitle());
+		try{
+			if (live)
+				detectLive(rois);
+			else
+				detectBatch(nFrames, maxInFlight, rois);
+		}
+		finally {
+			metrics.unregisterMXBean();
+			try {rois.close();}
+			catch (IOException e) {
+				log.error("YeastMate: could not write ROIs", e);
+			}
+			if (resultWriter != null)
+			{
+				try {resultWriter.close();}
+				catch (IOException e) {
+					e.printStackTrace();
+				}
 			}
+		}
 
-			statusService.showStatus( 2, 3, "Parsing Results" );
+		if (framesReused > 0)
+			log.info("YeastMate: reused detections of the previous frame for " + framesReused + " repeated frame(s) of " + image.getTitle());
+		if (canceled)
+			log.info("YeastMate: canceled after " + framesProcessed + " frame(s)" + (cancelReason != null ? " (" + cancelReason + ")" : ""));
+		else if (tracker.canRetrack())
+			LAST_TRACKING.put(image, new LastTracking(tracker, roiPositions, rois));
 
-			List<SingleFrameDetectionResults> results = new ArrayList<>();
-			for (JSONObject response : responses) {
-				SingleFrameDetectionResults lastFrameResults = results.size() >= 1 ? results.get(results.size() - 1) : null;
-				SingleFrameDetectionResults thisFrameResults = new SingleFrameDetectionResults(response, lastFrameResults);
-				results.add(thisFrameResults);
+		metrics.finish();
+		log.info(metrics.summary());
+		if (metricsFile != null)
+		{
+			try {metrics.export(metricsFile);}
+			catch (IOException e) {
+				log.error("Could not export timings to " + metricsFile, e);
 			}
+		}
+	}
 
-			AtomicInteger frameIdx = new AtomicInteger();
-			for (SingleFrameDetectionResults detectionResults : results) {
+	/**
+	 * @return bounds of the selection on image plus margin (within the image) if we should only detect there, else null
+	 */
+	private Rectangle getCrop() {
+		if (!cropToSelection)
+			return null;
+		if (LIVE_DIRECTORY.equals(liveMode))
+		{
+			log.warn("YeastMate: frames from a directory are detected as a whole, ignoring selection");
+			return null;
+		}
+		final Roi selection = image.getRoi();
+		if (selection == null)
+		{
+			log.warn("YeastMate: no selection on " + image.getTitle() + ", detecting in the whole image");
+			return null;
+		}
 
-				// set frame of image, as we will use it as reference for ROIs
-				if (processEveryFrame)
-					image.setT(frameIdx.incrementAndGet());
+		final Rectangle bounds = selection.getBounds();
+		bounds.grow(selectionMargin, selectionMargin);
+		final Rectangle crop = bounds.intersection(new Rectangle(image.getWidth(), image.getHeight()));
+		if (crop.isEmpty() || (crop.width == image.getWidth() && crop.height == image.getHeight()))
+			return null;
+		log.info("YeastMate: detecting in " + crop.width + "x" + crop.height + " region at (" + crop.x + ", " + crop.y + ") of " + image.getTitle());
+		return crop;
+	}
 
-				Map<Integer, Roi> labelsToRois = getLabelROIMap(detectionResults.mask);
-				final JSONObject detectionsJSON = detectionResults.detections;
-				final HashSet< Integer > cellsOfSelectedClasses = new HashSet<>();
-				Iterator<?> keysIt = detectionsJSON.keys();
-				while (keysIt.hasNext())
-				{
-					String key = (String) keysIt.next();
-					JSONObject thing = detectionsJSON.getJSONObject( key );
-					JSONArray classes = thing.getJSONArray("class");
-					for (int i=0; i<classes.length(); i++)
-					{
+	/**
+	 * tracking of a complete run with the ROI position of every frame and the output its ROIs went to
+	 */
+	static class LastTracking {
+		final Tracker tracker;
+		final Map<Integer, RoiPosition> roiPositions;
+		// closed, only to remove its ROIs and add new ones to the same destination
+		final RoiOutput rois;
+
+		LastTracking(Tracker tracker, Map<Integer, RoiPosition> roiPositions, RoiOutput rois) {
+			this.tracker = tracker;
+			this.roiPositions = roiPositions;
+			this.rois = rois;
+		}
+	}
 
-						JSONArray box = thing.getJSONArray("box");
-
-						int x = box.getInt(0);
-						int y = box.getInt(1);
-						int w = box.getInt(2) - box.getInt(0);
-						int h = box.getInt(3) - box.getInt(1);
-
-						String objectClassCode = classes.getString(i);
-						String objectClass = getObjectClassStringFromClassCode(objectClassCode);
-
-						if ((addSingleRois && objectClassCode.startsWith("0")) || (addMatingRois && objectClassCode.startsWith("1")) || (addBuddingRois && objectClassCode.startsWith("2"))) {
-
-							Roi roi = null;
-							// for compound objects or if we do not want outlines: get bbox ROI
-							if ((objectClassCode.length() == 1) && !objectClassCode.equals( "0" ) || !addOutlineRois)
-								roi = new Roi(x,y,w,h);
-							else
-								roi = labelsToRois.get( Integer.parseInt( key ) );
-
-							// NB: total length of ROI name should be < 30 chars!
-							// otherwise it will be truncated in label in resultsTable
-							// see ij.plugin.filter.Analyzer
-							// in our current naming scheme we have 9 chars for cell & parent id
-							String roiName = detectionResults.allLabelRemap.get( Integer.parseInt( key )) + ": " + objectClass;
-							// we have subobject of lifecycle transition -> add parent id in ROI name
-							if (objectClassCode.length() > 1)
-							{
-								roiName += ", " + (objectClassCode.charAt( 0 ) == '1' ? "mating " : "budding ") + detectionResults.allLabelRemap.get(thing.getJSONArray("links").getInt( i-1 ));
-							}
-
-							cellsOfSelectedClasses.add( Integer.parseInt( key ) );
-							roi.setName( roiName );
-
-							roi.setPosition(image);
-							manager.addRoi(roi);
-						}
-					}
+	/**
+	 * @return tracking of the last complete run on image (with all frames kept) or null
+	 */
+	static LastTracking getLastTracking(ImagePlus image) {
+		return LAST_TRACKING.get(image);
+	}
+
+	/**
+	 * replace tracking of the last run on image (after re-tracking)
+	 */
+	static void setLastTracking(ImagePlus image, LastTracking tracking) {
+		LAST_TRACKING.put(image, tracking);
+	}
 
+	/**
+	 * ROI destination as selected, falls back to ROI Manager if the selected one is not possible
+	 */
+	private RoiOutput createRoiOutput() {
+		if (ROI_OUTPUT_ZIP.equals(roiOutputMode))
+		{
+			if (roiZipFile == null)
+				log.warn("YeastMate: no ROI zip file given, adding ROIs to ROI Manager");
+			else
+			{
+				try {return RoiOutput.toZip(roiZipFile);}
+				catch (IOException e) {
+					log.error("YeastMate: could not create " + roiZipFile + ", adding ROIs to ROI Manager", e);
 				}
+			}
+		}
+		else if (ROI_OUTPUT_OVERLAY.equals(roiOutputMode))
+		{
+			// frames from a directory are not part of an image we could put an overlay on
+			if (LIVE_DIRECTORY.equals(liveMode))
+				log.warn("YeastMate: overlay output is not possible when watching a directory, adding ROIs to ROI Manager");
+			else
+				return RoiOutput.toOverlay(image);
+		}
+		return RoiOutput.toRoiManager();
+	}
 
-				// prepare single mask frame for display
-				if (showSegmentation)
-				{
-					// set objects under threshold to zero
-					if (onlySelectedClassesInMask)
-						ImageJFunctions.wrapReal(detectionResults.mask ).forEach( v -> {
-							if (!cellsOfSelectedClasses.contains( (int)(v.getRealFloat())))
-								v.setZero();
-						});
-					
-					// relabel mask
-					LabelTools.relabelMap(ImageJFunctions.wrapShort(detectionResults.mask), detectionResults.allLabelRemap);
+	private void detectBatch(int nFrames, int maxInFlight, RoiOutput rois) {
+
+		// mask is shown right away and filled as frames finish
+		ImagePlus maskIP = showSegmentation ? createMaskImage(image.getWidth(), image.getHeight(), nFrames) : null;
+
+		// frames that have been sent, but not processed yet (in order)
+		// we only normalize this far ahead of the first unfinished frame to bound memory
+		final int maxPendingFrames = 2 * maxInFlight;
+		Deque<Future<JSONObject>> pending = new ArrayDeque<>();
+		SingleFrameDetectionResults last = null;
+
+		for (int i = 0; i < nFrames && !checkCanceled(); i++) {
+			// process finished frames while waiting for memory for another normalized frame
+			while (!acquireFrameBuffer())
+			{
+				if (checkCanceled())
+					return;
+				if (!pending.isEmpty() && pending.peek().isDone())
+					last = processBatchFrame(pending.poll(), last, nFrames, rois, maskIP);
+			}
+
+			long start = System.nanoTime();
+			if (processEveryFrame)
+				image.setT(i+1);
+			final ImagePlus normalizedIP = getNormalizedImagePlus(image, minNormalizationQualtile, maxNormalizationQualtile, downsamplingFactor, uploadFixedPoint, crop);
+			final boolean duplicate = isDuplicate(normalizedIP, i);
+			metrics.addTime(i, DetectionMetrics.Stage.NORMALIZATION, System.nanoTime() - start);
+
+			pending.add(duplicate ? reusePrevious(normalizedIP) : submitDetection(normalizedIP, i));
+
+			// process finished frames in order, wait if we are too far ahead
+			while (!pending.isEmpty() && (pending.peek().isDone() || pending.size() > maxPendingFrames) && !checkCanceled())
+				last = processBatchFrame(pending.poll(), last, nFrames, rois, maskIP);
+		}
+
+		while (!pending.isEmpty() && !checkCanceled())
+			last = processBatchFrame(pending.poll(), last, nFrames, rois, maskIP);
+	}
+
+	private SingleFrameDetectionResults processBatchFrame(Future<JSONObject> future, SingleFrameDetectionResults last, int nFrames, RoiOutput rois, ImagePlus maskIP) {
+		final int frame = framesProcessed;
+
+		// set frame of image, as we will use it as reference for ROIs
+		if (processEveryFrame)
+			image.setT(frame + 1);
+
+		SingleFrameDetectionResults results = processFrame(future, last, frame, image, false, rois, maskIP, frame + 1);
+		statusService.showProgress(frame + 1, nFrames);
+		statusService.showStatus("YeastMate: processed frame " + (frame + 1) + "/" + nFrames);
+		return results;
+	}
+
+	/**
+	 * live mode: detect frames one by one as they arrive, tracking each against the previous frame only
+	 * 
+	 * NB: the mask window only shows the latest frame, so memory use does not grow with the length of the acquisition
+	 */
+	private void detectLive(RoiOutput rois) {
+		LiveFrameSource source = LIVE_STACK.equals(liveMode) ? LiveFrameSource.watchStack(image) : LiveFrameSource.watchDirectory(liveDirectory);
+		ImagePlus maskIP = null;
+		SingleFrameDetectionResults last = null;
+		// size of the first frame, mask and tracking need all frames to have it
+		int width = -1;
+		int height = -1;
+
+		try {
+			while (!checkCanceled()) {
+				statusService.showStatus("YeastMate live: waiting for frame " + (framesProcessed + 1));
+				ImagePlus frameImage = source.next(liveIdleTimeout * 1000L, this::checkCanceled);
+				if (frameImage == null)
+					break;
+				final int frame = source.getFrameIndex();
+
+				if (width < 0) {
+					width = frameImage.getWidth();
+					height = frameImage.getHeight();
 				}
+				else if (frameImage.getWidth() != width || frameImage.getHeight() != height) {
+					log.warn("YeastMate live: skipping frame " + (frame + 1) + " (" + frameImage.getTitle() + "), it is " + frameImage.getWidth()
+							+ "x" + frameImage.getHeight() + " instead of " + width + "x" + height);
+					continue;
+				}
+
+				if (showSegmentation && maskIP == null)
+					maskIP = createMaskImage(frameImage.getWidth(), frameImage.getHeight(), 1);
+
+				while (!acquireFrameBuffer())
+					if (checkCanceled())
+						return;
+
+				long start = System.nanoTime();
+				final ImagePlus normalizedIP = getNormalizedImagePlus(frameImage, minNormalizationQualtile, maxNormalizationQualtile, downsamplingFactor, uploadFixedPoint, crop);
+				final boolean duplicate = isDuplicate(normalizedIP, frame);
+				metrics.addTime(frame, DetectionMetrics.Stage.NORMALIZATION, System.nanoTime() - start);
+
+				// frames from files are not part of an image, ROIs are positioned by frame index only
+				last = processFrame(duplicate ? reusePrevious(normalizedIP) : submitDetection(normalizedIP, frame), last, frame, frameImage, frameImage != image, rois, maskIP, 1);
+				statusService.showStatus("YeastMate live: processed frame " + (frame + 1));
 			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			cancelRun();
+		}
+	}
 
-			// display mask(s)
-			if (showSegmentation) {
-				ImageStack maskStack = new ImageStack();
-				for (SingleFrameDetectionResults result : results) {
-					maskStack.addSlice(result.mask.getProcessor());
+	private Future<JSONObject> submitDetection(ImagePlus normalizedIP, int frame) {
+		try {
+			return requestExecutor.submit(() -> {
+				try {
+					return runRemoteDetection(normalizedIP, client, scoreThresholdSingle, scoreThresholdMating, scoreThresholdBudding, metrics, frame, gzipRequests);
+				}
+				finally {
+					releaseFrameBuffer(normalizedIP);
 				}
-				ImagePlus maskIP = new ImagePlus("segmentation of " + image.getTitle(), maskStack);
+			});
+		}
+		catch (RejectedExecutionException e) {
+			// request executor was shut down on cancel, the frame is dropped with the run
+			releaseFrameBuffer(normalizedIP);
+			return CompletableFuture.completedFuture(null);
+		}
+	}
+
+	/**
+	 * wait (up to {@link #CANCEL_POLL_MS}) until another normalized frame may be held in memory
+	 * 
+	 * @return true if a frame buffer was acquired, it is given back with {@link #releaseFrameBuffer(ImagePlus)}
+	 */
+	private boolean acquireFrameBuffer() {
+		try {
+			return frameBuffers.tryAcquire(CANCEL_POLL_MS, TimeUnit.MILLISECONDS);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			cancelRun();
+			return false;
+		}
+	}
+
+	private void releaseFrameBuffer(ImagePlus normalizedIP) {
+		releaseNormalizedImagePlus(normalizedIP);
+		frameBuffers.release();
+	}
+
+	/**
+	 * compare fingerprint of a normalized frame to the last frame that was sent for detection (if enabled)
+	 * 
+	 * NB: frames are not compared to the frame before, so slow changes over a static period add up until
+	 * the frame is detected again
+	 * 
+	 * @return whether detections of the frame before can be reused, else frame becomes the new reference
+	 */
+	private boolean isDuplicate(ImagePlus normalizedIP, int frame) {
+		if (!reuseDuplicateFrames)
+			return false;
+		final FrameFingerprint fingerprint = FrameFingerprint.of(normalizedIP);
+		if (fingerprint.matches(referenceFingerprint, duplicateFrameTolerance))
+			return true;
+		referenceFingerprint = fingerprint;
+		referenceFrame = frame;
+		return false;
+	}
+
+	private Future<JSONObject> reusePrevious(ImagePlus normalizedIP) {
+		releaseFrameBuffer(normalizedIP);
+		return CompletableFuture.completedFuture(REUSE_PREVIOUS);
+	}
+
+	private ImagePlus createMaskImage(int width, int height, int nSlices) {
+		ImageStack maskStack = new ImageStack(width, height);
+		for (int i = 0; i < nSlices; i++)
+			maskStack.addSlice(new ShortProcessor(width, height));
+		ImagePlus maskIP = new ImagePlus("segmentation of " + image.getTitle(), maskStack);
+
+		// NB: we do not use stack minmax for LUT at the moment
+		// it does look rather dim in first frame when using Fire
+		// TODO: look for better LUT?
+		trySetLUT(lutService, maskIP, false);
+		maskIP.show();
+		return maskIP;
+	}
 
-				// NB: we do not use stack minmax for LUT at the moment
-				// it does look rather dim in first frame when using Fire
-				// TODO: look for better LUT?
-				trySetLUT(maskIP, false);
-				maskIP.show();
+	/**
+	 * wait for detection response of a frame, track it against the last frame, add ROIs and fill mask slice
+	 * 
+	 * @param frameImage          image positioned at the frame, used as reference for ROI positions
+	 * @param positionByFrameIndex set ROI position to frame index instead (frames that are not part of a stack)
+	 * @param maskSlice           slice of maskIP to show mask of this frame in
+	 * @return detection results of this frame (or last if canceled while waiting)
+	 */
+	private SingleFrameDetectionResults processFrame(Future<JSONObject> future, SingleFrameDetectionResults last, int frame, ImagePlus frameImage, boolean positionByFrameIndex, RoiOutput rois, ImagePlus maskIP, int maskSlice) {
+
+		JSONObject response = awaitResponse(future);
+		if (canceled)
+			return last;
+
+		SingleFrameDetectionResults detectionResults;
+		if (response == REUSE_PREVIOUS)
+		{
+			// repeated frame: same mask and detections as the frame before, tracked against it like any other frame
+			// NB: frames already queued behind a failed reference repeat its empty result
+			detectionResults = new SingleFrameDetectionResults(last, frame);
+			framesReused++;
+		}
+		else
+		{
+			if (response == null)
+			{
+				log.error("YeastMate: detection failed for frame " + (frame + 1) + ", it will be left empty.");
+				// do not reuse the empty result, the next frame is sent again
+				if (referenceFingerprint != null && referenceFrame == frame)
+					referenceFingerprint = null;
 			}
+			detectionResults = new SingleFrameDetectionResults(response, frame, frameImage.getWidth(), frameImage.getHeight());
+		}
+		final Map<Integer, Integer> labelRemap = tracker.getTracks().getLabelRemap(frame);
+
+		// ROIs are positioned in frameImage (or by frame index), the position is stored with the results
+		final RoiPosition position = positionByFrameIndex ? RoiPosition.of(frame + 1) : RoiPosition.of(frameImage);
+		if (roiPositions != null)
+			roiPositions.put(frame, position);
 
+		// persist untracked mask, detections and tracking
+		if (resultWriter != null)
+		{
+			try {
+				resultWriter.writeFrame(new ResultFile.Frame(frame, position, detectionResults.rleMask, detectionResults.detections, labelRemap));
+			} catch (IOException e) {
+				log.error("YeastMate: could not write results of frame " + (frame + 1) + " to " + resultFile, e);
+			}
 		}
-		catch(JSONException c) {
-			log.info(c);
+
+		long start = System.nanoTime();
+		final Set< Integer > cellsOfSelectedClasses = new HashSet<>();
+		for (Roi roi : createRois(detectionResults.detections, labelRemap, detectionResults.mask, addSingleRois, addMatingRois, addBuddingRois, cellsOfSelectedClasses))
+		{
+			position.apply(roi);
+			rois.add(roi);
 		}
-	
-		statusService.showStatus( 3, 3, "YeastMate: Done" );
+		try {rois.flushIfDue();}
+		catch (IOException e) {
+			log.error("YeastMate: could not write ROIs", e);
+		}
+		metrics.addTime(frame, DetectionMetrics.Stage.ROIS, System.nanoTime() - start);
+
+		// prepare single mask frame for display
+		// NB: we work on a copy, next frame is tracked against the original labels
+		start = System.nanoTime();
+		if (maskIP != null)
+		{
+			fillMaskSlice(detectionResults.mask, labelRemap, onlySelectedClassesInMask ? cellsOfSelectedClasses : null,
+					(short[]) maskIP.getStack().getPixels(maskSlice));
+			if (maskSlice == 1)
+				maskIP.resetDisplayRange();
+			maskIP.updateAndDraw();
+		}
+		metrics.addTime(frame, DetectionMetrics.Stage.MASK, System.nanoTime() - start);
+		log.debug(metrics.frameSummary(frame));
+
+		metrics.frameDone(frame);
+		framesProcessed++;
+		return detectionResults;
+	}
+
+	/**
+	 * create ROIs for all detections of the selected classes, named by their tracked labels
+	 * 
+	 * @param detections             detections as returned by server
+	 * @param labelRemap             original label -> tracked label
+	 * @param mask                   original label mask, used for outlines of single cells
+	 * @param cellsOfSelectedClasses will be filled with original labels of all objects that got a ROI
+	 * @return ROIs (not yet positioned)
+	 */
+	static List<Roi> createRois(DetectionTable detections, Map<Integer, Integer> labelRemap, ImagePlus mask, boolean addSingleRois, boolean addMatingRois, boolean addBuddingRois, Set<Integer> cellsOfSelectedClasses) {
+		List<Roi> rois = new ArrayList<>();
+		if (!(addSingleRois || addMatingRois || addBuddingRois))
+			return rois;
+
+		Map<Integer, Roi> labelsToRois = getLabelROIMap(mask);
+		for (int d = 0; d < detections.size(); d++)
+		{
+			final int label = detections.getId(d);
+
+			int x = (int) detections.getBox(d, 0);
+			int y = (int) detections.getBox(d, 1);
+			int w = (int) detections.getBox(d, 2) - x;
+			int h = (int) detections.getBox(d, 3) - y;
+
+			for (int i=0; i<detections.getNumberOfClasses(d); i++)
+			{
+				final int objectClassCode = detections.getClass(d, i);
+				final int mainClass = DetectionTable.mainClass(objectClassCode);
+				String objectClass = getObjectClassStringFromClassCode(DetectionTable.classCodeToString(objectClassCode));
+
+				if ((addSingleRois && mainClass == 0) || (addMatingRois && mainClass == 1) || (addBuddingRois && mainClass == 2)) {
+
+					Roi roi = null;
+					// for compound objects or if we do not want outlines: get bbox ROI
+					if ((objectClassCode == 1 || objectClassCode == 2) || !addOutlineRois)
+						roi = new Roi(x,y,w,h);
+					else
+						roi = labelsToRois.get( label );
+
+					// NB: total length of ROI name should be < 30 chars!
+					// otherwise it will be truncated in label in resultsTable
+					// see ij.plugin.filter.Analyzer
+					// in our current naming scheme we have 9 chars for cell & parent id
+					String roiName = labelRemap.get( label ) + ": " + objectClass;
+					// we have subobject of lifecycle transition -> add parent id in ROI name
+					if (objectClassCode >= 10)
+					{
+						roiName += ", " + (mainClass == 1 ? "mating " : "budding ") + labelRemap.get(detections.getLink(d, i-1));
+					}
+
+					cellsOfSelectedClasses.add( label );
+					roi.setName( roiName );
+					rois.add( roi );
+				}
+			}
+
+		}
+		return rois;
+	}
+
+	/**
+	 * write original label mask relabeled to tracked labels into target pixels (of a mask slice for display)
+	 * 
+	 * @param selectedLabels if not null, only keep these (original) labels
+	 */
+	static void fillMaskSlice(ImagePlus mask, Map<Integer, Integer> labelRemap, Set<Integer> selectedLabels, short[] target) {
+		// filtering and relabeling in one pass over the pixels
+		final short[] lut = LabelTools.getLabelLUT(labelRemap, selectedLabels);
+		LabelTools.applyLabelLUT((short[]) mask.getProcessor().getPixels(), lut, target);
+	}
+	/**
+	 * wait for response, periodically checking for cancellation
+	 * 
+	 * @return response or null if request failed or we were canceled
+	 */
+	private JSONObject awaitResponse(Future<JSONObject> future) {
+		while (!checkCanceled())
+		{
+			try {
+				return future.get(CANCEL_POLL_MS, TimeUnit.MILLISECONDS);
+			} catch (TimeoutException e) {
+				continue;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				cancelRun();
+			} catch (ExecutionException | CancellationException e) {
+				e.printStackTrace();
+				return null;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return whether the run was canceled, by {@link #cancel(String)} or ESC (like ImageJ1 commands)
+	 */
+	private boolean checkCanceled() {
+		if (!canceled && IJ.escapePressed())
+			cancel("ESC pressed");
+		return canceled;
 	}
 
-	private String getObjectClassStringFromClassCode(String objectClassCode) {
+	/**
+	 * NB: no check for ESC here, the module framework asks before running, when a stale ESC press might still be set
+	 */
+	@Override
+	public boolean isCanceled() {
+		return canceled;
+	}
+
+	/**
+	 * cancel a running detection (called by the module framework, e.g. when its task is canceled)
+	 */
+	@Override
+	public void cancel(String reason) {
+		cancelReason = reason;
+		cancelRun();
+	}
+
+	@Override
+	public String getCancelReason() {
+		return cancelReason;
+	}
+
+	/**
+	 * stop pending work and abort requests that are in flight
+	 */
+	private void cancelRun() {
+		canceled = true;
+		// client and request executor of a child run are shared with its siblings, the parent run stops them
+		if (parent != null)
+			return;
+		final List<YeastMate> runs = childRuns;
+		if (runs != null)
+			runs.forEach(run -> run.canceled = true);
+		if (requestExecutor != null)
+			requestExecutor.shutdownNow();
+		if (client != null)
+			client.abortAll();
+	}
+
+	private static String getObjectClassStringFromClassCode(String objectClassCode) {
 		String objectClass = "";
 
 		if (objectClassCode.equals( "0" ))
@@ -399,7 +1394,7 @@ public class YeastMate implements Command, Previewable {
 		return objectClass;
 	}
 
-	private <T extends RealType<T>> Map<Integer, Roi> getLabelROIMap(ImagePlus mask) {
+	static <T extends RealType<T>> Map<Integer, Roi> getLabelROIMap(ImagePlus mask) {
 		final ImageProcessor maskProcessor = mask.getProcessor();
 		final Wand wand = new Wand( maskProcessor );
 		Map<Integer, Roi> labelsToRois = new HashMap<>();
@@ -420,7 +1415,7 @@ public class YeastMate implements Command, Previewable {
 		return labelsToRois;
 	}
 
-	private void trySetLUT(ImagePlus mask, boolean useStackRange) {
+	static void trySetLUT(LUTService lutService, ImagePlus mask, boolean useStackRange) {
 		if (lutService.findLUTs().containsKey( LABEL_LUT_NAME ))
 		{
 			ColorTable lutColorTable = null;
@@ -454,164 +1449,63 @@ public class YeastMate implements Command, Previewable {
 
 	private class SingleFrameDetectionResults
 	{
-		public LinkedHashSet<Integer> singleLabels;
-		public LinkedHashSet<Integer> matingLabels;
-		public LinkedHashSet<Integer> buddingLabels;
-		public Map<Integer, Integer> singleLabelRemap;
-		public Map<Integer, Integer> compoundLabelRemap;
-		public Map<Integer, Integer> allLabelRemap;
 		public ImagePlus mask;
-		public JSONObject detections;
-		public Map<Integer, double[]> compoundBoxes;
-		public int maxLabel;
-
-		public SingleFrameDetectionResults(JSONObject results, SingleFrameDetectionResults last) {
-			
-			// TODO: proper name for mask?
-			mask = parseMaskFromResult(results, "mask");
-			
-			// get max label from old frame if this is not the first frame
-			int startValue = last == null ? 0 : last.maxLabel;
-
-			// get label set and map to sequential integers starting at previous max value
-			singleLabels = LabelTools.getLabelSet(ImageJFunctions.wrapShort(mask));
-			singleLabelRemap = new HashMap<>();
-			AtomicInteger idx = new AtomicInteger(startValue);
-			for (Integer s: singleLabels) singleLabelRemap.put(s, idx.incrementAndGet());
-
-			compoundBoxes = new HashMap<>();
-			compoundLabelRemap = new HashMap<>();
-			matingLabels = new LinkedHashSet<>();
-			buddingLabels = new LinkedHashSet<>();
-
-			try
-			{
-				detections = results.getJSONObject( "detections" );
+		public RleLabelMask rleMask;
+		public DetectionTable detections;
+		public int frame;
 
-				Iterator<?> keysIt = detections.keys();
-				while (keysIt.hasNext())
-				{
-					String key = (String) keysIt.next();
-					JSONObject detection = detections.getJSONObject( key );
-					JSONArray classes = detection.getJSONArray("class");
-
-					// get bounding box of object
-					JSONArray box = detection.getJSONArray("box");
-					int x = box.getInt(0);
-					int y = box.getInt(1);
-					int w = box.getInt(2) - box.getInt(0);
-					int h = box.getInt(3) - box.getInt(1);
-
-					// NB: compound objects have only one class, so we only look at index 0
-					String objectClassCode = classes.getString(0);
-
-					// save label if we have compound object
-					if (objectClassCode.equals( "1" ))
-						matingLabels.add(Integer.parseInt(key));
-					if (objectClassCode.equals( "2" ))
-						buddingLabels.add(Integer.parseInt(key));
-
-					// save box if we have compound object
-					if (objectClassCode.equals( "1" ) || objectClassCode.equals( "2" ))
-						compoundBoxes.put(Integer.parseInt(key), new double[] {x, y, x+w, y+h});
+		public SingleFrameDetectionResults(JSONObject results, int frame, int width, int height) {
 
-				}
-			}
-			catch (JSONException e) { e.printStackTrace(); }
+			this.frame = frame;
+			long start = System.nanoTime();
 
-			// map sequential for compound labels to new sequential labels as well (following single cell labels)
-			for (Integer s: matingLabels) compoundLabelRemap.put(s, idx.incrementAndGet());
-			for (Integer s: buddingLabels) compoundLabelRemap.put(s, idx.incrementAndGet());
+			// TODO: proper name for mask?
+			// failed request -> empty frame
+			if (results == null)
+				mask = new ImagePlus("mask", new ShortProcessor(width, height));
+			else
+				mask = parseMaskFromResult(results, "mask");
+
+			// detection ran on downsampled and/or cropped image -> bring mask back to original geometry
+			final int detectedWidth = crop != null ? crop.width : width;
+			final int detectedHeight = crop != null ? crop.height : height;
+			if (downsamplingFactor > 1 && results != null)
+				mask = upscaleMask(mask, downsamplingFactor, detectedWidth, detectedHeight);
+			if (crop != null && results != null)
+				mask = uncropMask(mask, crop, width, height);
 
-			// match labels from last frame
-			if (last != null)
+			try
 			{
-				// match labels from last frame by maximizing mask IoU
-				Map<Pair<Integer, Integer>, Double> ioUs = LabelTools.getIoUs(ImageJFunctions.wrapShort(mask), ImageJFunctions.wrapShort(last.mask));
-				Map<Integer, Integer> matchedLabels = LabelTools.matchLabelsMaximizeIoU(ioUs, minTrackingOverlap);
-				matchedLabels.forEach((labelNew, labelOld) -> {
-					singleLabelRemap.put(labelNew, last.allLabelRemap.get(labelOld));
-				});
-
-				// match compound objects via box overlap (mating and budding seperately)
-				Map<Integer, Integer> matchBoxesMating = matchBoxes(matingLabels, last.matingLabels, compoundBoxes, last.compoundBoxes, minTrackingOverlap);
-				Map<Integer, Integer> matchBoxesBudding = matchBoxes(buddingLabels, last.buddingLabels, compoundBoxes, last.compoundBoxes, minTrackingOverlap);
-				matchBoxesMating.forEach((labelNew, labelOld) -> {
-					compoundLabelRemap.put(labelNew, last.allLabelRemap.get(labelOld));
-				});
-				matchBoxesBudding.forEach((labelNew, labelOld) -> {
-					compoundLabelRemap.put(labelNew, last.allLabelRemap.get(labelOld));
-				});
-
-				// to prevent jumps in labels, we relabel from start value once more for objects that were not matched
-				final AtomicInteger idx2 = new AtomicInteger(startValue);
-				singleLabelRemap.forEach((label, remappedLabel) -> {
-					if (!matchedLabels.containsKey(label))
-						singleLabelRemap.put(label, idx2.incrementAndGet());
-				});
-				compoundLabelRemap.forEach((label, remappedLabel) -> {
-					if (!(matchBoxesMating.containsKey(label) || matchBoxesBudding.containsKey(label)))
-						compoundLabelRemap.put(label, idx2.incrementAndGet());
-				});
-
+				detections = results == null ? DetectionTable.EMPTY : DetectionTable.fromJSON( results.getJSONObject( "detections" ) );
 			}
-
-			// map of all (single and compound) re-mapped labels
-			allLabelRemap = new HashMap<>();
-			allLabelRemap.putAll(singleLabelRemap);
-			allLabelRemap.putAll(compoundLabelRemap);
-
-			// get maximum (re-mapped) label
-			AtomicInteger tmpMaxLabel = new AtomicInteger(-1);
-			allLabelRemap.values().forEach(s -> {tmpMaxLabel.set( Math.max(s, tmpMaxLabel.get()));});
-			// max label might have been in previous frame, check that
-			maxLabel = Math.max(last == null ? 0 : last.maxLabel, tmpMaxLabel.get());
-		}
-
-		private Map<Integer, Integer> matchBoxes(Set<Integer> labels1, Set<Integer> labels2, Map<Integer, double[]> boxes1, Map<Integer, double[]> boxes2, double minOverlap)
-		{
-			final List<Integer> llabels1 = new ArrayList<>(labels1);
-			final List<Integer> llabels2 = new ArrayList<>(labels2);
-			final int m = llabels1.size();
-			final int n = llabels2.size();
-
-			final double[] cost = new double[m * n];
-			for (int i=0; i<m; i++)
-			{
-				for (int j=0; j<n; j++)
-				{
-
-					double w = getIoU(boxes1.get(llabels1.get(i)), boxes2.get(llabels2.get(j)));
-					if (w < minOverlap) {
-						w = 0.0;
-					}
-					cost[i*n + j] = w;
-				}
+			catch (JSONException e) {
+				e.printStackTrace();
+				detections = DetectionTable.EMPTY;
 			}
-
-			Map<Integer, Integer> matchedIndices = JonkerVolgenantMatching.linearSumAssignment(cost, m, n, true);
-			Map<Integer, Integer> matches = new HashMap<>();
-			matchedIndices.forEach((row, column) -> {
-				if (cost[row * n + column] > minOverlap)
-					matches.put(llabels1.get(row), llabels2.get(column));
-			});
-			
-			return matches;
+			if (downsamplingFactor > 1)
+				detections.scaleBoxes(downsamplingFactor, detectedWidth, detectedHeight);
+			if (crop != null)
+				detections.translateBoxes(crop.x, crop.y);
+			metrics.addTime(frame, DetectionMetrics.Stage.DECODING, System.nanoTime() - start);
+			start = System.nanoTime();
+
+			rleMask = RleLabelMask.fromImagePlus(mask);
+			tracker.track(frame, rleMask, detections);
+			metrics.addTime(frame, DetectionMetrics.Stage.TRACKING, System.nanoTime() - start);
 		}
 
-		private double getIoU(double[] box1, double[] box2)
-		{
-			// get IoU of x1, y1, x2, y2 boxes
-			double area1 = (box1[2] - box1[0]) * (box1[3] - box1[1]);
-			double area2 = (box2[2] - box2[0]) * (box2[3] - box2[1]);
-
-			double intersectMinX = Math.max(box1[0], box2[0]);
-			double intersectMinY = Math.max(box1[1], box2[1]);
-			double intersectMaxX = Math.min(box1[2], box2[2]);
-			double intersectMaxY = Math.min(box1[3], box2[3]);
-
-			double intersection = (intersectMaxX > intersectMinX ? (intersectMaxX - intersectMinX) : 0) * (intersectMaxY > intersectMinY ? (intersectMaxY - intersectMinY) : 0);
-			return intersection / (area1 + area2 - intersection);
+		/**
+		 * results of a repeated frame: mask and detections of previous (not modified afterwards, so they are shared)
+		 */
+		public SingleFrameDetectionResults(SingleFrameDetectionResults previous, int frame) {
+			this.frame = frame;
+			mask = previous.mask;
+			rleMask = previous.rleMask;
+			detections = previous.detections;
+
+			long start = System.nanoTime();
+			tracker.track(frame, rleMask, detections);
+			metrics.addTime(frame, DetectionMetrics.Stage.TRACKING, System.nanoTime() - start);
 		}
 	}
 